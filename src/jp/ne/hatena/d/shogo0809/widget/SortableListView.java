@@ -1,17 +1,25 @@
 package jp.ne.hatena.d.shogo0809.widget;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemLongClickListener;
+import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.ListView;
 
@@ -26,6 +34,19 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 	private static final int SCROLL_SPEED_FAST = 25;
 	private static final int SCROLL_SPEED_SLOW = 8;
 	private static final Bitmap.Config DRAG_BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
+	private static final int DROP_HINT_COLOR = Color.rgb(0x33, 0xB5, 0xE5);
+
+	/** ドラッグ中の項目を WindowManager に追加した別ウィンドウで表示する（デフォルト） */
+	public static final int DRAG_MODE_WINDOW = 0;
+
+	/** ドラッグ中の項目を {@link #dispatchDraw(Canvas)} で ListView 上に直接描画する */
+	public static final int DRAG_MODE_IN_VIEW = 1;
+
+	/**
+	 * ドラッグ中の項目をハードウェアレイヤを持つ別の View としてルートの View に重ね、移動は translation だけで行う<br>
+	 * 指が動いても ListView もレイヤも再描画されず、合成時の位置だけが変わる（API 11 未満では {@link #DRAG_MODE_IN_VIEW} と同じ）
+	 */
+	public static final int DRAG_MODE_HARDWARE_LAYER = 2;
 
 	private boolean mSortable = false;
 	private boolean mDragging = false;
@@ -36,6 +57,25 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 	private WindowManager.LayoutParams mLayoutParams = null;
 	private MotionEvent mActionDownEvent;
 	private int mPositionFrom = -1;
+	private int mDragMode = DRAG_MODE_WINDOW;
+	private int mActiveDragMode = DRAG_MODE_WINDOW;
+	private final Rect mDragRect = new Rect();
+	private final Rect mDirtyRect = new Rect();
+	private final Paint mDragBackgroundPaint = new Paint();
+	private int mDragOffsetX = 0;
+	private int mDragOffsetY = 0;
+	private ImageView mShadowView = null;
+	private int mShadowOriginX = 0;
+	private int mShadowOriginY = 0;
+	private boolean mCrossListDrag = false;
+	private int mDownX = 0;
+	private final List<SortableListView> mDropCandidates = new ArrayList<SortableListView>();
+	private final int[] mLocation = new int[2];
+	private SortableListView mDropTarget = null;
+	private int mDropTargetPosition = -1;
+	private int mDropHintPosition = -1;
+	private final Paint mDropHintPaint = new Paint();
+	private boolean mReleaseDragBitmap = false;
 
 	/** コンストラクタ */
 	public SortableListView(Context context) {
@@ -60,6 +100,11 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 		mDragListener = listener;
 	}
 
+	/** ドラッグイベントリスナの取得 */
+	public DragListener getDragListener() {
+		return mDragListener;
+	}
+
 	/** ソートモードの切替 */
 	public void setSortable(boolean sortable) {
 		this.mSortable = sortable;
@@ -76,6 +121,55 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 		return mSortable;
 	}
 
+	/**
+	 * ドラッグ中の項目の描画方法を設定する（次回のドラッグ開始時から反映）
+	 * 
+	 * @param mode
+	 *            {@link #DRAG_MODE_WINDOW}、{@link #DRAG_MODE_IN_VIEW}、{@link #DRAG_MODE_HARDWARE_LAYER}のいずれか
+	 */
+	public void setDragMode(int mode) {
+		if (mode != DRAG_MODE_WINDOW && mode != DRAG_MODE_IN_VIEW && mode != DRAG_MODE_HARDWARE_LAYER) {
+			throw new IllegalArgumentException("unknown drag mode: " + mode);
+		}
+		mDragMode = mode;
+	}
+
+	/** ドラッグ中の項目の描画方法を取得する */
+	public int getDragMode() {
+		return mDragMode;
+	}
+
+	/**
+	 * 同じウィンドウ内の別の SortableListView へのドラッグ＆ドロップを許可する（次回のドラッグ開始時から反映）<br>
+	 * 移動元・移動先の両方で有効にし、移動元の {@link DragListener} が {@link TransferListener} を実装している必要がある。<br>
+	 * {@link #DRAG_MODE_IN_VIEW} では影が移動元の ListView の外に描画されないため、{@link #DRAG_MODE_HARDWARE_LAYER} か {@link #DRAG_MODE_WINDOW} で使うこと。
+	 * 影をウィンドウ内の座標で動かす {@link #DRAG_MODE_HARDWARE_LAYER} を推奨する。
+	 */
+	public void setCrossListDragEnabled(boolean enabled) {
+		mCrossListDrag = enabled;
+	}
+
+	/** 別の SortableListView へのドラッグ＆ドロップが許可されているか */
+	public boolean isCrossListDragEnabled() {
+		return mCrossListDrag;
+	}
+
+	/**
+	 * 使い回すために残しているドラッグ中の項目の Bitmap を捨てる（ドラッグ中であれば終了時に捨てる）
+	 */
+	public void releaseDragCache() {
+		if (mDragging) {
+			mReleaseDragBitmap = true;
+		} else {
+			mDragBitmap = null;
+		}
+	}
+
+	/** ドラッグ中の項目の Bitmap が使っているバイト数（残っていなければ0） */
+	public int getDragCacheBytes() {
+		return mDragBitmap != null ? mDragBitmap.getRowBytes() * mDragBitmap.getHeight() : 0;
+	}
+
 	/** MotionEvent から position を取得する */
 	private int eventToPosition(MotionEvent event) {
 		return pointToPosition((int) event.getX(), (int) event.getY());
@@ -124,6 +218,7 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 	/** ACTION_DOWN 時の MotionEvent をプロパティに格納 */
 	private void storeMotionEvent(MotionEvent event) {
 		mActionDownEvent = event;
+		mDownX = (int) event.getX();
 	}
 
 	/** ドラッグ開始 */
@@ -139,6 +234,12 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 			return false;
 		}
 		mDragging = true;
+		mActiveDragMode = mDragMode;
+		collectDropCandidates();
+
+		if (mActiveDragMode != DRAG_MODE_WINDOW) {
+			return startInViewDrag();
+		}
 
 		// View, Canvas, WindowManager の取得・生成
 		final View view = getChildByIndex(mPositionFrom);
@@ -173,9 +274,57 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 		return duringDrag(mActionDownEvent);
 	}
 
+	/** ドラッグ開始（ListView 上に直接描画する場合） */
+	private boolean startInViewDrag() {
+		final View view = getChildByIndex(mPositionFrom);
+		final int width = view.getWidth();
+		final int height = view.getHeight();
+
+		// 前回と同じ大きさの Bitmap が残っていれば使い回す（影の ImageView はドラッグ終了時に外すので、前回の ImageView に握られている心配はない）
+		if (mDragBitmap == null || mDragBitmap.getWidth() != width || mDragBitmap.getHeight() != height) {
+			mDragBitmap = Bitmap.createBitmap(width, height, DRAG_BITMAP_CONFIG);
+		} else {
+			mDragBitmap.eraseColor(Color.TRANSPARENT);
+		}
+		final Canvas canvas = new Canvas(mDragBitmap);
+		view.draw(canvas);
+
+		// 掴んだ位置を保持しておき、指と影がずれないようにする
+		mDragRect.set(view.getLeft(), view.getTop(), view.getRight(), view.getBottom());
+		if (mActionDownEvent != null) {
+			mDragOffsetX = (int) mActionDownEvent.getX() - view.getLeft();
+			mDragOffsetY = (int) mActionDownEvent.getY() - view.getTop();
+		} else {
+			mDragOffsetX = width / 2;
+			mDragOffsetY = height / 2;
+		}
+		mDragBackgroundPaint.setColor(mBitmapBackgroundColor);
+
+		if (mActiveDragMode == DRAG_MODE_HARDWARE_LAYER) {
+			attachShadowView(width, height);
+		}
+		if (mShadowView == null) {
+			invalidate(mDragRect);
+		}
+
+		// ドラッグ開始
+		if (mDragListener != null) {
+			mPositionFrom = mDragListener.onStartDrag(mPositionFrom);
+		}
+		if (mActionDownEvent == null) {
+			return true;
+		}
+		return duringDrag(mActionDownEvent);
+	}
+
+	/** ドラッグ中の影が存在するか */
+	private boolean hasDragShadow() {
+		return mActiveDragMode == DRAG_MODE_WINDOW ? mDragImageView != null : mDragBitmap != null;
+	}
+
 	/** ドラッグ処理 */
 	private boolean duringDrag(MotionEvent event) {
-		if (!mDragging || mDragImageView == null) {
+		if (!mDragging || !hasDragShadow()) {
 			return false;
 		}
 		final int x = (int) event.getX();
@@ -183,11 +332,14 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 		final int height = getHeight();
 		final int middle = height / 2;
 
+		// 別のリストの上にいる場合は、そのリストへのドロップ位置を示すだけで自分は並べ替えない
+		updateDropTarget((int) event.getRawX(), (int) event.getRawY());
+
 		// スクロール速度の決定
 		final int speed;
 		final int fastBound = height / 9;
 		final int slowBound = height / 4;
-		if (event.getEventTime() - event.getDownTime() < 500) {
+		if (mDropTarget != null || event.getEventTime() - event.getDownTime() < 500) {
 			// ドラッグの開始から500ミリ秒の間はスクロールしない
 			speed = 0;
 		} else if (y < slowBound) {
@@ -211,15 +363,19 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 			}
 		}
 
-		// ImageView の表示や位置を更新
-		if (mDragImageView.getHeight() < 0) {
-			mDragImageView.setVisibility(View.INVISIBLE);
+		if (mActiveDragMode == DRAG_MODE_WINDOW) {
+			// ImageView の表示や位置を更新
+			if (mDragImageView.getHeight() < 0) {
+				mDragImageView.setVisibility(View.INVISIBLE);
+			} else {
+				mDragImageView.setVisibility(View.VISIBLE);
+			}
+			updateLayoutParams(x, y);
+			getWindowManager().updateViewLayout(mDragImageView, mLayoutParams);
 		} else {
-			mDragImageView.setVisibility(View.VISIBLE);
+			moveDragShadow(x, y);
 		}
-		updateLayoutParams(x, y);
-		getWindowManager().updateViewLayout(mDragImageView, mLayoutParams);
-		if (mDragListener != null) {
+		if (mDragListener != null && mDropTarget == null) {
 			mPositionFrom = mDragListener.onDuringDrag(mPositionFrom, pointToPosition(x, y));
 		}
 		return true;
@@ -231,9 +387,29 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 			return false;
 		}
 		if (isDrop && mDragListener != null) {
-			mDragListener.onStopDrag(mPositionFrom, eventToPosition(event));
+			if (mDropTarget != null) {
+				((TransferListener) mDragListener).onTransfer(mPositionFrom, mDropTarget, mDropTargetPosition);
+			} else {
+				mDragListener.onStopDrag(mPositionFrom, eventToPosition(event));
+			}
 		}
+		setDropTarget(null, -1);
+		mDropCandidates.clear();
 		mDragging = false;
+		if (mActiveDragMode != DRAG_MODE_WINDOW) {
+			// Bitmap は次回のドラッグで使い回すため、releaseDragCache() で求められていなければ破棄しない
+			if (mReleaseDragBitmap) {
+				mDragBitmap = null;
+				mReleaseDragBitmap = false;
+			}
+			if (mShadowView != null) {
+				((ViewGroup) mShadowView.getParent()).removeView(mShadowView);
+				mShadowView = null;
+			} else {
+				invalidate(mDragRect);
+			}
+			return true;
+		}
 		if (mDragImageView != null) {
 			getWindowManager().removeView(mDragImageView);
 			mDragImageView = null;
@@ -245,6 +421,142 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 		return false;
 	}
 
+	/** ドロップ先の候補（同じウィンドウ内で別リストへのドラッグが許可されている SortableListView）を集める */
+	private void collectDropCandidates() {
+		mDropCandidates.clear();
+		if (mCrossListDrag && mDragListener instanceof TransferListener) {
+			collectDropCandidates(getRootView(), (TransferListener) mDragListener);
+		}
+	}
+
+	private void collectDropCandidates(View view, TransferListener listener) {
+		if (view == this) {
+			return;
+		}
+		if (view instanceof SortableListView) {
+			final SortableListView list = (SortableListView) view;
+			if (list.mCrossListDrag && listener.canTransfer(list)) {
+				mDropCandidates.add(list);
+			}
+		} else if (view instanceof ViewGroup) {
+			final ViewGroup group = (ViewGroup) view;
+			for (int i = 0; i < group.getChildCount(); i++) {
+				collectDropCandidates(group.getChildAt(i), listener);
+			}
+		}
+	}
+
+	/** 画面上の座標からドロップ先のリストと挿入位置を求める（候補はドラッグ開始時に集めたものだけを調べる） */
+	private void updateDropTarget(int rawX, int rawY) {
+		for (int i = 0; i < mDropCandidates.size(); i++) {
+			final SortableListView list = mDropCandidates.get(i);
+			if (!list.isShown()) {
+				continue;
+			}
+			list.getLocationOnScreen(mLocation);
+			final int x = rawX - mLocation[0];
+			final int y = rawY - mLocation[1];
+			if (x < 0 || y < 0 || x >= list.getWidth() || y >= list.getHeight()) {
+				continue;
+			}
+			int position = list.pointToPosition(x, y);
+			if (position == AdapterView.INVALID_POSITION) {
+				// 区切り線や末尾の余白の上
+				final View last = list.getChildAt(list.getChildCount() - 1);
+				position = last == null || y >= last.getBottom() ? list.getCount() : list.getFirstVisiblePosition();
+			}
+			setDropTarget(list, position);
+			return;
+		}
+		setDropTarget(null, -1);
+	}
+
+	private void setDropTarget(SortableListView target, int position) {
+		if (mDropTarget != null && (mDropTarget != target || mDropTargetPosition != position)) {
+			mDropTarget.setDropHint(-1);
+		}
+		mDropTarget = target;
+		mDropTargetPosition = position;
+		if (target != null) {
+			target.setDropHint(position);
+		}
+	}
+
+	/** 別のリストからドロップされる位置を示す線を描画する（-1で消す） */
+	private void setDropHint(int position) {
+		if (mDropHintPosition != position) {
+			mDropHintPosition = position;
+			mDropHintPaint.setColor(DROP_HINT_COLOR);
+			invalidate();
+		}
+	}
+
+	/** 影をハードウェアレイヤを持つ ImageView としてルートの View に載せる（API 11 未満やルートが FrameLayout でない場合は載せない） */
+	private void attachShadowView(int width, int height) {
+		final View rootView = getRootView();
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || !(rootView instanceof FrameLayout)) {
+			return;
+		}
+		mShadowView = new ImageView(getContext());
+		mShadowView.setBackgroundColor(mBitmapBackgroundColor);
+		mShadowView.setImageBitmap(mDragBitmap);
+		mShadowView.setLayerType(LAYER_TYPE_HARDWARE, null);
+		((FrameLayout) rootView).addView(mShadowView, new FrameLayout.LayoutParams(width, height, Gravity.TOP | Gravity.LEFT));
+
+		// ListView の座標をルートの座標に変換するためのずれ
+		getLocationInWindow(mLocation);
+		mShadowOriginX = mLocation[0];
+		mShadowOriginY = mLocation[1];
+		rootView.getLocationInWindow(mLocation);
+		mShadowOriginX -= mLocation[0];
+		mShadowOriginY -= mLocation[1];
+		mShadowView.setTranslationX(mShadowOriginX + mDragRect.left);
+		mShadowView.setTranslationY(mShadowOriginY + mDragRect.top);
+	}
+
+	/** 影を移動する（ListView 上に描画している場合は移動前後の領域だけを再描画する） */
+	private void moveDragShadow(int x, int y) {
+		if (mShadowView != null) {
+			// レイヤの合成位置を変えるだけで、何も再描画しない
+			mDragRect.offsetTo(x - mDragOffsetX, y - mDragOffsetY);
+			mShadowView.setTranslationX(mShadowOriginX + mDragRect.left);
+			mShadowView.setTranslationY(mShadowOriginY + mDragRect.top);
+			return;
+		}
+		mDirtyRect.set(mDragRect);
+		mDragRect.offsetTo(x - mDragOffsetX, y - mDragOffsetY);
+		mDirtyRect.union(mDragRect);
+		invalidate(mDirtyRect);
+	}
+
+	/** 子 View の描画後、ドラッグ中の影を重ねて描画する */
+	@Override
+	protected void dispatchDraw(Canvas canvas) {
+		super.dispatchDraw(canvas);
+		if (mDropHintPosition >= 0 && getChildCount() > 0) {
+			// 挿入位置の行の上端（末尾なら最後の行の下端）に線を引く
+			final int index = mDropHintPosition - getFirstVisiblePosition();
+			final int y;
+			if (index < 0) {
+				y = 0;
+			} else if (index < getChildCount()) {
+				y = getChildAt(index).getTop();
+			} else {
+				y = getChildAt(getChildCount() - 1).getBottom();
+			}
+			final int thickness = Math.max(2, getDividerHeight());
+			final int top = Math.max(0, Math.min(getHeight() - thickness, y - thickness / 2));
+			canvas.drawRect(0, top, getWidth(), top + thickness, mDropHintPaint);
+		}
+		if (mDragging && mActiveDragMode != DRAG_MODE_WINDOW && mShadowView == null && mDragBitmap != null) {
+			final int saveCount = canvas.save();
+			canvas.translate(mDragRect.left, mDragRect.top);
+			canvas.drawRect(0, 0, mDragRect.width(), mDragRect.height(), mDragBackgroundPaint);
+			canvas.drawBitmap(mDragBitmap, 0, 0, null);
+			canvas.restoreToCount(saveCount);
+		}
+	}
+
 	/** 指定インデックスのView要素を取得する */
 	private View getChildByIndex(int index) {
 		return getChildAt(index - getFirstVisiblePosition());
@@ -265,13 +577,25 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 				| WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON | WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS;
 		mLayoutParams.format = PixelFormat.TRANSLUCENT;
 		mLayoutParams.windowAnimations = 0;
-		mLayoutParams.x = getLeft();
+		mLayoutParams.x = getScreenLeft();
 		mLayoutParams.y = getTop();
 	}
 
 	/** ImageView 用 LayoutParams の座標情報を更新 */
 	protected void updateLayoutParams(int x, int y) {
 		mLayoutParams.y = getTop() + y - 32;
+		if (mCrossListDrag) {
+			// 別のリストへ運べるよう横方向にも指に追従させる
+			mLayoutParams.x = getScreenLeft() + x - mDownX;
+		}
+	}
+
+	/**
+	 * 画面上での左端の座標（getLeft()は親の中での位置なので、左右に並べたリストでは右側のリストでも0に近い）
+	 */
+	private int getScreenLeft() {
+		getLocationOnScreen(mLocation);
+		return mLocation[0];
 	}
 
 	/** ドラッグイベントリスナーインターフェース */
@@ -286,6 +610,20 @@ public class SortableListView extends ListView implements OnItemLongClickListene
 		public boolean onStopDrag(int positionFrom, int positionTo);
 	}
 
+	/**
+	 * 別の SortableListView へのドロップを受け取るリスナーインターフェース<br>
+	 * {@link #setDragListener(DragListener)} で渡すリスナーがこれを実装していれば、{@link #setCrossListDragEnabled(boolean)} が有効な間だけ使われる。
+	 * 別のリストの上にいる間は {@link DragListener#onDuringDrag(int, int)} は呼ばれず、ドロップ時には {@link DragListener#onStopDrag(int, int)}
+	 * の代わりに {@link #onTransfer(int, SortableListView, int)} が呼ばれる。
+	 */
+	public interface TransferListener {
+		/** ドラッグ開始時に、target をドロップ先の候補とするか */
+		public boolean canTransfer(SortableListView target);
+
+		/** 別のリストへのドロップ時の処理（positionTo は target に挿入する位置で、末尾なら target の項目数） */
+		public boolean onTransfer(int positionFrom, SortableListView target, int positionTo);
+	}
+
 	/** ドラッグイベントリスナー実装 */
 	public static class SimpleDragListener implements DragListener {
 		/** ドラッグ開始時の処理 */
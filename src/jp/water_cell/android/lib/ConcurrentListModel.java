@@ -0,0 +1,391 @@
+package jp.water_cell.android.lib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.util.Log;
+
+/**
+ * どのスレッドからでも変更できるリストのモデル。<br>
+ * 変更はキューに積まれ、専用の書き込みスレッドがまとめて適用する。適用結果は不変のスナップショットとして公開され、
+ * {@link #getSnapshot()}はロックを取らずに最新のスナップショットを返す。<br>
+ * 連続した変更はUIスレッドへの1回の通知（{@link OnSnapshotListener}）にまとめられる。
+ *
+ * @author nakagawa
+ *
+ * @param <E>
+ *            項目の型
+ */
+public class ConcurrentListModel<E> {
+
+	private static final String TAG = ConcurrentListModel.class.getSimpleName();
+
+	/**
+	 * 書き込みスレッド上でリストに適用される変更（例外を投げた場合はその変更だけを飛ばす。途中まで行った変更はそのまま残る）
+	 *
+	 * @param <E>
+	 *            項目の型
+	 */
+	public interface Mutation<E> {
+		/**
+		 *
+		 * @param items
+		 *            変更対象のリスト（書き込みスレッドからのみ触られる）
+		 */
+		void apply(List<E> items);
+	}
+
+	/**
+	 * 新しいスナップショットを受け取るリスナ（UIスレッドで呼ばれる）
+	 *
+	 * @param <E>
+	 *            項目の型
+	 */
+	public interface OnSnapshotListener<E> {
+		/**
+		 *
+		 * @param snapshot
+		 *            変更を適用した後の不変のリスト
+		 */
+		void onSnapshot(List<E> snapshot);
+	}
+
+	private final ConcurrentLinkedQueue<PendingMutation<E>> mQueue = new ConcurrentLinkedQueue<PendingMutation<E>>();
+
+	private final AtomicReference<List<E>> mSnapshot;
+
+	private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+
+	private final AtomicBoolean mPublishScheduled = new AtomicBoolean(false);
+
+	/** UIスレッドにまだ反映していない外部からの変更があるか */
+	private final AtomicBoolean mExternalPending = new AtomicBoolean(false);
+
+	/** UIスレッドで既に反映済みで、書き込みスレッドがまだ適用していない変更の数 */
+	private final AtomicInteger mPendingMirrors = new AtomicInteger(0);
+
+	private final ExecutorService mWriter;
+
+	private final Executor mUiExecutor;
+
+	private volatile OnSnapshotListener<E> mListener;
+
+	private final Runnable mDrain = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	private final Runnable mPublish = new Runnable() {
+		@Override
+		public void run() {
+			publish();
+		}
+	};
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param initialItems
+	 *            初期状態の項目（コピーされる）
+	 * @param uiExecutor
+	 *            {@link OnSnapshotListener}を呼び出すExecutor（Androidでは{@link android.os.Handler#post(Runnable)}に渡すもの）
+	 */
+	public ConcurrentListModel(List<E> initialItems, Executor uiExecutor) {
+		mSnapshot = new AtomicReference<List<E>>(Collections.unmodifiableList(new ArrayList<E>(initialItems)));
+		mUiExecutor = uiExecutor;
+		mWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, ConcurrentListModel.class.getSimpleName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * {@link OnSnapshotListener}をセットする
+	 *
+	 * @param listener
+	 */
+	public void setOnSnapshotListener(OnSnapshotListener<E> listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * 最新のスナップショットを返す（ブロックしない）
+	 *
+	 * @return 不変のリスト
+	 */
+	public List<E> getSnapshot() {
+		return mSnapshot.get();
+	}
+
+	/**
+	 * 変更を積む（どのスレッドからでも呼べる）
+	 *
+	 * @param mutation
+	 */
+	public void post(Mutation<E> mutation) {
+		enqueue(new PendingMutation<E>(mutation, false));
+	}
+
+	/**
+	 * 項目を末尾に追加する
+	 *
+	 * @param item
+	 */
+	public void add(final E item) {
+		post(new Mutation<E>() {
+			@Override
+			public void apply(List<E> items) {
+				items.add(item);
+			}
+		});
+	}
+
+	/**
+	 * 項目を置き換える（見つからなければ何もしない）
+	 *
+	 * @param oldItem
+	 * @param newItem
+	 */
+	public void replace(E oldItem, E newItem) {
+		post(replaceMutation(oldItem, newItem));
+	}
+
+	/**
+	 * 項目を削除する（見つからなければ何もしない）
+	 *
+	 * @param item
+	 */
+	public void remove(E item) {
+		post(removeMutation(item));
+	}
+
+	/**
+	 * 全項目を入れ替える
+	 *
+	 * @param newItems
+	 *            新しい項目（コピーされる）
+	 */
+	public void replaceAll(List<E> newItems) {
+		post(replaceAllMutation(newItems));
+	}
+
+	/**
+	 * 書き込みスレッドを止める。以降の変更は無視される
+	 */
+	public void release() {
+		mListener = null;
+		mWriter.shutdown();
+	}
+
+	/**
+	 * UIスレッドで既に反映した変更を積む。外部からの変更がない限り、この変更だけでは{@link OnSnapshotListener}は呼ばれない
+	 *
+	 * @param mutation
+	 */
+	void mirror(Mutation<E> mutation) {
+		mPendingMirrors.incrementAndGet();
+		enqueue(new PendingMutation<E>(mutation, true));
+	}
+
+	/**
+	 * 最新のスナップショットを改めて{@link OnSnapshotListener}に通知する（UIで反映済みの変更が適用されるのを待ってから通知する）
+	 */
+	void republish() {
+		mExternalPending.set(true);
+		if (mPublishScheduled.compareAndSet(false, true)) {
+			mUiExecutor.execute(mPublish);
+		}
+	}
+
+	/**
+	 * UIで挿入した項目を、UIのリストで隣にある項目を目印にして挿入する。<br>
+	 * 書き込みスレッドのリストにはUIがまだ見ていない外部からの変更が入っていることがあるので、位置はそのまま使えない
+	 *
+	 * @param uiItems
+	 *            挿入した後のUIのリスト
+	 * @param position
+	 *            挿入した位置
+	 */
+	static <E> Mutation<E> addMutation(List<E> uiItems, final int position) {
+		final E item = uiItems.get(position);
+		final E before = itemAt(uiItems, position - 1);
+		final E after = itemAt(uiItems, position + 1);
+		return new Mutation<E>() {
+			@Override
+			public void apply(List<E> items) {
+				items.add(anchoredPosition(items, before, after, position), item);
+			}
+		};
+	}
+
+	static <E> Mutation<E> replaceMutation(final E oldItem, final E newItem) {
+		return new Mutation<E>() {
+			@Override
+			public void apply(List<E> items) {
+				final int position = items.indexOf(oldItem);
+				if (position >= 0) {
+					items.set(position, newItem);
+				}
+			}
+		};
+	}
+
+	static <E> Mutation<E> removeMutation(final E item) {
+		return new Mutation<E>() {
+			@Override
+			public void apply(List<E> items) {
+				items.remove(item);
+			}
+		};
+	}
+
+	/**
+	 * UIで動かした項目を、UIのリストで隣にある項目を目印にして動かす（{@link #addMutation(List, int)}と同じ理由で位置は使わない）
+	 *
+	 * @param uiItems
+	 *            動かした後のUIのリスト
+	 * @param positionTo
+	 *            動かした先の位置
+	 */
+	static <E> Mutation<E> moveMutation(List<E> uiItems, final int positionTo) {
+		final E item = uiItems.get(positionTo);
+		final E before = itemAt(uiItems, positionTo - 1);
+		final E after = itemAt(uiItems, positionTo + 1);
+		return new Mutation<E>() {
+			@Override
+			public void apply(List<E> items) {
+				final int position = items.indexOf(item);
+				if (position < 0) {
+					return; // 外部からの変更で既に消えている
+				}
+				items.remove(position);
+				items.add(anchoredPosition(items, before, after, positionTo), item);
+			}
+		};
+	}
+
+	private static <E> E itemAt(List<E> items, int position) {
+		return position >= 0 && position < items.size() ? items.get(position) : null;
+	}
+
+	/**
+	 * 直前の項目の後ろ、なければ直後の項目の前の位置を返す。どちらも外部からの変更で消えていればUIでの位置（末尾で切り詰める）
+	 */
+	private static <E> int anchoredPosition(List<E> items, E before, E after, int position) {
+		if (before != null) {
+			final int index = items.indexOf(before);
+			if (index >= 0) {
+				return index + 1;
+			}
+		}
+		if (after != null) {
+			final int index = items.indexOf(after);
+			if (index >= 0) {
+				return index;
+			}
+		}
+		return Math.min(position, items.size());
+	}
+
+	static <E> Mutation<E> replaceAllMutation(List<E> newItems) {
+		final List<E> copy = new ArrayList<E>(newItems);
+		return new Mutation<E>() {
+			@Override
+			public void apply(List<E> items) {
+				items.clear();
+				items.addAll(copy);
+			}
+		};
+	}
+
+	private void enqueue(PendingMutation<E> mutation) {
+		mQueue.offer(mutation);
+		if (mDrainScheduled.compareAndSet(false, true)) {
+			try {
+				mWriter.execute(mDrain);
+			} catch (RejectedExecutionException e) {
+				// release()済み
+			}
+		}
+	}
+
+	/** 書き込みスレッド：積まれた変更をまとめて適用し、スナップショットを公開する */
+	private void drain() {
+		mDrainScheduled.set(false);
+
+		List<E> working = null;
+		boolean external = false;
+		int mirrors = 0;
+		PendingMutation<E> pending;
+		while ((pending = mQueue.poll()) != null) {
+			if (working == null) {
+				working = new ArrayList<E>(mSnapshot.get());
+			}
+			// 取り出した時点で数える（例外で数え漏れると、publish()が反映済みの変更を永遠に待ってしまう）
+			if (pending.mirrored) {
+				mirrors++;
+			} else {
+				external = true;
+			}
+			try {
+				pending.mutation.apply(working);
+			} catch (RuntimeException e) {
+				Log.w(TAG, "mutation failed", e);
+			}
+		}
+		if (working == null) {
+			return;
+		}
+
+		mSnapshot.set(Collections.unmodifiableList(working));
+		mPendingMirrors.addAndGet(-mirrors);
+		if (external) {
+			mExternalPending.set(true);
+		}
+		if (mExternalPending.get() && mPublishScheduled.compareAndSet(false, true)) {
+			mUiExecutor.execute(mPublish);
+		}
+	}
+
+	/** UIスレッド：最新のスナップショットを通知する */
+	private void publish() {
+		mPublishScheduled.set(false);
+		if (mPendingMirrors.get() > 0) {
+			// UIで反映済みの変更がまだスナップショットに入っていないので、書き込みスレッドの次の公開を待つ
+			return;
+		}
+		if (!mExternalPending.getAndSet(false)) {
+			return;
+		}
+		OnSnapshotListener<E> listener = mListener;
+		if (listener != null) {
+			listener.onSnapshot(mSnapshot.get());
+		}
+	}
+
+	private static class PendingMutation<E> {
+		final Mutation<E> mutation;
+		final boolean mirrored;
+
+		PendingMutation(Mutation<E> mutation, boolean mirrored) {
+			this.mutation = mutation;
+			this.mirrored = mirrored;
+		}
+	}
+}
@@ -2,20 +2,30 @@ package jp.water_cell.android.lib;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import jp.ne.hatena.d.shogo0809.widget.SortableListView;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ComponentCallbacks;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.res.Configuration;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.Fragment;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputMethodManager;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ArrayAdapter;
@@ -24,33 +34,40 @@ import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
+import android.widget.TextView.OnEditorActionListener;
 
 import com.actionbarsherlock.app.SherlockListFragment;
 
 /**
  * 編集可能なリスト。<br>
  * {@link SimpleListItem}のリストを{@link #setArguments(Bundle)}(key: {@link SimpleListItem#KEY} )経由で渡すことで使用を開始する。<br>
+ * 独自の項目クラスを使う場合は、{@link #setItems(List, ItemAccessor)}でホスト側のリストを直接渡す（コピーせずにそのまま編集される）。<br>
  * 初期化時にargsで{@link #KEY_LIST_LAYOUT_ID}でレイアウトのIDを渡せば、{@link ArrayAdapter} のレイアウトとして利用される。<br>
  * 
  * @see https://raw.github.com/Nkzn/EditableListFragmentSample/master/src/jp/water_cell/android/app/sample/MainActivity.java
  * 
  * @author nakagawa
  * 
+ * @param <T>
+ *            項目の型
  */
-public class EditableListFragment extends SherlockListFragment implements OnItemClickListener, OnClickListener {
+public class EditableListFragment<T> extends SherlockListFragment implements OnItemClickListener, OnClickListener, OnEditorActionListener {
 
 	/**
 	 * リストへの変更を通知するリスナ
 	 * 
 	 * @author nakagawa
 	 * 
+	 * @param <T>
+	 *            項目の型
 	 */
-	public interface OnListChangedListener {
+	public interface OnListChangedListener<T> {
 		/**
 		 * 
 		 * @param items
-		 *            更新後の{@link SimpleListItem}のリスト
+		 *            更新後の項目のリスト
 		 * @param tag
 		 *            どのリストか識別する用の文字列（中に入る値は{@link Fragment#getTag()}などを想定）
 		 * @param editType
@@ -59,7 +76,55 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 		 * @param modifiedItem
 		 *            変更があった項目(SORT時はnull)
 		 */
-		void onListChanged(List<SimpleListItem> items, String tag, int editType, SimpleListItem modifiedItem);
+		void onListChanged(List<T> items, String tag, int editType, T modifiedItem);
+	}
+
+	/**
+	 * 別の{@link EditableListFragment}への項目の移動を通知するリスナ（移動元のリスナだけが1回呼ばれる）
+	 * 
+	 * @author nakagawa
+	 * 
+	 * @param <T>
+	 *            項目の型
+	 */
+	public interface OnListTransferredListener<T> {
+		/**
+		 * 
+		 * @param sourceItems
+		 *            移動元の更新後の項目のリスト
+		 * @param sourceTag
+		 *            移動元のタグ（{@link EditableListFragment#getAvailableTag()}）
+		 * @param positionFrom
+		 *            移動元での位置（同じリスト内で並べ替えてから移した場合は、並べ替え後の位置）
+		 * @param targetItems
+		 *            移動先の更新後の項目のリスト
+		 * @param targetTag
+		 *            移動先のタグ（{@link EditableListFragment#getAvailableTag()}）
+		 * @param positionTo
+		 *            移動先での位置
+		 * @param item
+		 *            移した項目
+		 */
+		void onListTransferred(List<T> sourceItems, String sourceTag, int positionFrom, List<T> targetItems, String targetTag,
+				int positionTo, T item);
+	}
+
+	/**
+	 * 高速スクロールのセクション分けに使うキーを決めるインタフェース
+	 * 
+	 * @author nakagawa
+	 * 
+	 * @param <T>
+	 *            項目の型
+	 */
+	public interface SectionKeyResolver<T> {
+		/**
+		 * 
+		 * @param item
+		 *            対象の項目
+		 * @return セクションのキー（つまみの横に表示される文字列）。連続する項目のキーが同じならひとつのセクションにまとめられる
+		 */
+		String getSectionKey(T item);
 	}
 
 	/**
@@ -69,6 +134,75 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 	 */
 	public static final String KEY_LIST_LAYOUT_ID = EditableListFragment.class.getName() + "list_layout_id";
 
+	/**
+	 * ドラッグ中の項目の描画方法を{@link Bundle#putInt(String, int)}で指定するためのキー<br/>
+	 * {@link SortableListView#DRAG_MODE_WINDOW}、{@link SortableListView#DRAG_MODE_IN_VIEW}、
+	 * {@link SortableListView#DRAG_MODE_HARDWARE_LAYER}のいずれか<br/>
+	 * デフォルト値：{@link SortableListView#DRAG_MODE_WINDOW}
+	 */
+	public static final String KEY_DRAG_MODE = EditableListFragment.class.getName() + "drag_mode";
+
+	/**
+	 * インライン編集モードを{@link Bundle#putBoolean(String, boolean)}で指定するためのキー<br/>
+	 * trueの場合、追加・編集・削除をダイアログではなくリスト下部の入力行で行う<br/>
+	 * デフォルト値：false
+	 */
+	public static final String KEY_INLINE_EDIT = EditableListFragment.class.getName() + "inline_edit";
+
+	/**
+	 * 連続入力モードを{@link Bundle#putBoolean(String, boolean)}で指定するためのキー<br/>
+	 * trueの場合、インライン編集で項目を追加した後も入力欄にフォーカスを残し、続けて入力できるようにする<br/>
+	 * {@link #KEY_INLINE_EDIT}がtrueの場合のみ有効。デフォルト値：false
+	 */
+	public static final String KEY_RAPID_ENTRY = EditableListFragment.class.getName() + "rapid_entry";
+
+	/**
+	 * 高速スクロールとセクションインデックスの有効化を{@link Bundle#putBoolean(String, boolean)}で指定するためのキー<br/>
+	 * セクションのキーはデフォルトではタイトルの先頭1文字（{@link #setSectionKeyResolver(SectionKeyResolver)}で変更可能）<br/>
+	 * デフォルト値：false
+	 */
+	public static final String KEY_FAST_SCROLL = EditableListFragment.class.getName() + "fast_scroll";
+
+	/**
+	 * 事前にinflateしておく行の数を{@link Bundle#putInt(String, int)}で指定するためのキー<br/>
+	 * 指定した場合、プログレス表示中に{@link #KEY_LIST_LAYOUT_ID}のレイアウトを別スレッドでinflateしておき、最初の1画面分の行に使う<br/>
+	 * 重いカスタムレイアウトを使う場合は1画面に収まる行数程度を指定する。デフォルト値：0（無効）
+	 */
+	public static final String KEY_PREWARM_COUNT = EditableListFragment.class.getName() + "prewarm_count";
+
+	/**
+	 * 別の{@link EditableListFragment}へのドラッグ＆ドロップの許可を{@link Bundle#putBoolean(String, boolean)}で指定するためのキー<br/>
+	 * 移動元・移動先の両方でtrueにし、同じ項目の型と{@link ItemAccessor}を使うこと。移動元に{@link OnListTransferredListener}がセットされている場合のみ有効<br/>
+	 * ドラッグの影がリストの外に出られるよう、{@link #KEY_DRAG_MODE}は{@link SortableListView#DRAG_MODE_HARDWARE_LAYER}か{@link SortableListView#DRAG_MODE_WINDOW}にすること
+	 * （{@link SortableListView#DRAG_MODE_IN_VIEW}では影が移動元のリストの外に描画されない）。影をウィンドウ内の座標で動かす{@link SortableListView#DRAG_MODE_HARDWARE_LAYER}を推奨。デフォルト値：false
+	 */
+	public static final String KEY_CROSS_LIST_DRAG = EditableListFragment.class.getName() + "cross_list_drag";
+
+	/**
+	 * メモリの予算（概算バイト数）を{@link Bundle#putLong(String, long)}で指定するためのキー<br/>
+	 * 指定した場合、Fragment自身が持つ履歴・キャッシュ・Bitmap（{@link ListMemoryStats#getBudgetedBytes()}）が予算を超えたときや、
+	 * システムからメモリ不足を通知されたときに、{@link #SHED_DRAG_CACHES}、{@link #SHED_HISTORY}、{@link #SHED_ITEM_CACHES}の順にメモリを手放す<br/>
+	 * 項目そのもの（{@link ListMemoryStats#getItemBytes()}）はホストのデータなので予算に含めない。すべて手放しても予算を超える場合は
+	 * {@link ListMemoryStats#isOverBudget()}がtrueになる<br/>
+	 * デフォルト値：0（無効。メモリ不足の通知にも反応しない）
+	 */
+	public static final String KEY_MEMORY_BUDGET = EditableListFragment.class.getName() + "memory_budget";
+
+	/** メモリを手放していない */
+	public static final int SHED_NONE = 0;
+
+	/** ドラッグ用のBitmapと事前にinflateした行を手放した（ドラッグのたびにBitmapを作り直す） */
+	public static final int SHED_DRAG_CACHES = 1;
+
+	/**
+	 * 元に戻すためのリスト全体のキャッシュを手放し、直前の操作を取り消す操作だけを記録するようにした<br/>
+	 * 以降の{@link #canceled()}は、操作の後に{@link #performed(List)}などで内容が変わっていると何もしない
+	 */
+	public static final int SHED_HISTORY = 2;
+
+	/** 指紋の位置ごとのキャッシュを手放した（{@link #performed(List)}での比較のたびに表示中のリストのハッシュも計算する） */
+	public static final int SHED_ITEM_CACHES = 3;
+
 	/** 追加 */
 	public static final int ADD = 0;
 
@@ -87,29 +221,97 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 	/** ListViewカスタマイズ用 */
 	private static final int INTERNAL_LIST_CONTAINER_ID = 0x00ff0003;
 
-	List<SimpleListItem> mItems;
+	/** 事前にinflateした行1つ分の概算バイト数 */
+	private static final int ESTIMATED_ROW_VIEW_BYTES = 2048;
 
-	List<SimpleListItem> mCachedItems;
+	/** 表示中のリストとキャッシュ */
+	final EditableListModel<T> mModel = new EditableListModel<T>();
 
 	EditableListItemAdapter mAdapter;
 
-	OnListChangedListener mListener;
+	OnListChangedListener<T> mListener;
+
+	OnListTransferredListener<T> mTransferListener;
 
 	String mTag;
 
 	int mDraggingPosition = -1;
 
+	boolean mInlineEdit;
+
+	boolean mRapidEntry;
+
+	EditText mInlineInput;
+
+	View mInlineDelete;
+
+	/** インライン編集中の項目（nullなら追加） */
+	T mInlineEditingItem;
+
+	/** 行のレイアウトID */
+	int mListLayoutId;
+
+	/** 事前にinflateした行のプール（無効時はnull） */
+	RowViewPool mRowViewPool;
+
+	/** 高速スクロール用のインデックス（無効時はnull） */
+	SectionRunIndex mSectionIndex;
+
+	SectionKeyResolver<T> mSectionKeyResolver;
+
+	/** バックグラウンドからの変更を受け付けるモデル（{@link #getConcurrentModel()}が呼ばれるまではnull） */
+	ConcurrentListModel<T> mConcurrentModel;
+
+	/** ドラッグ中に届いたため反映を保留しているスナップショットがあるか */
+	boolean mSnapshotDeferred;
+
+	/** 直前の操作が別のリストとの間の移動だった場合の相手（{@link #canceled()}で両方を戻す） */
+	EditableListFragment<T> mTransferPeer;
+
+	/** メモリの予算（0なら無効） */
+	long mMemoryBudget;
+
+	/** どこまでメモリを手放したか */
+	int mShedLevel = SHED_NONE;
+
+	/** すべて手放しても予算を超えているか */
+	boolean mOverBudget;
+
+	/** onTrimMemoryを受け取るコールバック（API 14未満ではnull） */
+	ComponentCallbacks mTrimCallbacks;
+
 	/**
 	 * コンストラクタ
 	 */
 	public EditableListFragment() {
 		super();
-		mCachedItems = new ArrayList<SimpleListItem>();
+		mModel.setObserver(new ModelObserver());
 	}
 
 	@Override
 	public void onAttach(Activity activity) {
 		super.onAttach(activity);
+
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			// support libraryのFragmentにはonTrimMemoryが届かないので、自分で登録する
+			mTrimCallbacks = new TrimMemoryCallbacks();
+			activity.getApplicationContext().registerComponentCallbacks(mTrimCallbacks);
+		}
+	}
+
+	@Override
+	public void onDetach() {
+		if (mTrimCallbacks != null) {
+			getActivity().getApplicationContext().unregisterComponentCallbacks(mTrimCallbacks);
+			mTrimCallbacks = null;
+		}
+		super.onDetach();
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		onMemoryPressure(SHED_ITEM_CACHES);
 	}
 
 	@Override
@@ -117,6 +319,25 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 		super.onResume();
 	}
 
+	@Override
+	public void onDestroyView() {
+		if (mRowViewPool != null) {
+			mRowViewPool.clear();
+		}
+		super.onDestroyView();
+	}
+
+	@Override
+	public void onDestroy() {
+		if (mConcurrentModel != null) {
+			mConcurrentModel.release();
+			mConcurrentModel = null;
+		}
+		// 残った側のcanceled()で破棄済みのモデルを触らないよう、また参照で破棄済みのFragmentを残さないよう、移動の相手との繋がりを切る
+		unlinkTransfer();
+		super.onDestroy();
+	}
+
 	@Override
 	public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 		// SupportLibraryのListFragmentを快適に使うためのおまじない。
@@ -141,17 +362,44 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 
 		Bundle args = getArguments();
 
-		if (mAdapter == null && args != null) {
+		if (mAdapter == null && (args != null || mModel.getItems() != null)) {
 
-			int listLayoutId = args.getInt(KEY_LIST_LAYOUT_ID, 0);
-			mItems = args.getParcelableArrayList(SimpleListItem.KEY);
+			int listLayoutId = args != null ? args.getInt(KEY_LIST_LAYOUT_ID, 0) : 0;
+			mListLayoutId = listLayoutId == 0 ? android.R.layout.simple_list_item_1 : listLayoutId;
 
-			if (mItems == null) {
-				mItems = new ArrayList<SimpleListItem>();
+			if (mModel.getItems() == null) {
+				setItemsFromArguments(args);
 			}
 
-			mAdapter = new EditableListItemAdapter(getActivity(), listLayoutId == 0 ? android.R.layout.simple_list_item_1 : listLayoutId, mItems);
+			mAdapter = new EditableListItemAdapter(getActivity(), mListLayoutId, mModel.getItems());
 
+			int prewarmCount = args != null ? args.getInt(KEY_PREWARM_COUNT, 0) : 0;
+			if (prewarmCount > 0) {
+				// プログレス表示のまま行をinflateし、終わってからAdapterをセットする
+				mRowViewPool = new RowViewPool();
+				mRowViewPool.setPoolSize(mListLayoutId, prewarmCount);
+				mRowViewPool.prewarm(LayoutInflater.from(getActivity()), getListView(), new Runnable() {
+					@Override
+					public void run() {
+						if (getView() != null && getListAdapter() == null) {
+							setListAdapter(mAdapter);
+						}
+					}
+				});
+			} else {
+				setListAdapter(mAdapter);
+			}
+
+			if (args != null && args.getBoolean(KEY_FAST_SCROLL, false)) {
+				mSectionIndex = new SectionRunIndex();
+				rebuildSectionIndex();
+			}
+
+			if (args != null && args.getLong(KEY_MEMORY_BUDGET, 0) > 0) {
+				setMemoryBudget(args.getLong(KEY_MEMORY_BUDGET));
+			}
+		} else if (mAdapter != null && getListAdapter() == null) {
+			// 行のinflate中にViewが作り直された場合
 			setListAdapter(mAdapter);
 		}
 
@@ -159,25 +407,68 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 		listView.setOnItemClickListener(this);
 		listView.setDragListener(new DragListener());
 		listView.setSortable(true);
+		listView.setFastScrollEnabled(mSectionIndex != null);
+		if (args != null) {
+			listView.setDragMode(args.getInt(KEY_DRAG_MODE, SortableListView.DRAG_MODE_WINDOW));
+			listView.setCrossListDragEnabled(args.getBoolean(KEY_CROSS_LIST_DRAG, false));
+		}
 
 		Button btnAdd = (Button) view.findViewById(R.id.btn_add);
 		btnAdd.setOnClickListener(this);
 
+		mInlineEdit = args != null && args.getBoolean(KEY_INLINE_EDIT, false);
+		mRapidEntry = args != null && args.getBoolean(KEY_RAPID_ENTRY, false);
+
+		if (mInlineEdit) {
+			btnAdd.setVisibility(View.GONE);
+			view.findViewById(R.id.inline_editor).setVisibility(View.VISIBLE);
+
+			mInlineInput = (EditText) view.findViewById(R.id.et_inline_input);
+			mInlineInput.setOnEditorActionListener(this);
+			mInlineDelete = view.findViewById(R.id.btn_inline_delete);
+			mInlineDelete.setOnClickListener(this);
+			view.findViewById(R.id.btn_inline_commit).setOnClickListener(this);
+			mInlineEditingItem = null;
+		}
+
 	}
 
 	@Override
 	public void onClick(View v) {
 
-		if (v.getId() == R.id.btn_add) {
+		// ライブラリプロジェクトのR.idはfinalではないためswitchは使えない
+		final int id = v.getId();
+		if (id == R.id.btn_add) {
 			onClickPlusOne();
+		} else if (id == R.id.btn_inline_commit) {
+			commitInline();
+		} else if (id == R.id.btn_inline_delete && mInlineEditingItem != null) {
+			deleteItem(mInlineEditingItem);
+			resetInlineEditor();
 		}
 
 	}
 
+	@Override
+	public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
+		boolean isEnter = event != null && event.getKeyCode() == KeyEvent.KEYCODE_ENTER;
+		if (actionId == EditorInfo.IME_ACTION_DONE || (isEnter && event.getAction() == KeyEvent.ACTION_DOWN)) {
+			commitInline();
+			// 連続入力モードではIMEを閉じずに次の入力を待つ
+			return mRapidEntry;
+		}
+		return isEnter; // ACTION_UPは消費するだけ
+	}
+
 	@Override
 	public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
 
-		final SimpleListItem original = mItems.get(position);
+		final T original = mModel.getItems().get(position);
+
+		if (mInlineEdit) {
+			startInlineEdit(original);
+			return;
+		}
 
 		new AlertDialog.Builder(getActivity()).setItems(R.array.edit_delete, new DialogInterface.OnClickListener() {
 			@Override
@@ -200,10 +491,74 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 	 * 
 	 * @param listener
 	 */
-	public void setOnListChangedListener(OnListChangedListener listener) {
+	public void setOnListChangedListener(OnListChangedListener<T> listener) {
 		mListener = listener;
 	}
 
+	/**
+	 * {@link OnListTransferredListener}をセットする
+	 * 
+	 * @param listener
+	 */
+	public void setOnListTransferredListener(OnListTransferredListener<T> listener) {
+		mTransferListener = listener;
+	}
+
+	/**
+	 * 高速スクロールのセクション分けに使うキーを決める{@link SectionKeyResolver}をセットする（nullでタイトルの先頭1文字に戻る）
+	 * 
+	 * @param resolver
+	 */
+	public void setSectionKeyResolver(SectionKeyResolver<T> resolver) {
+		mSectionKeyResolver = resolver;
+		rebuildSectionIndex();
+	}
+
+	/**
+	 * 表示・編集するリストをセットする。リストはコピーされず、追加・編集・削除・並べ替えはこのリストに直接行われる。<br>
+	 * {@link #setArguments(Bundle)}で{@link SimpleListItem}のリストを渡す代わりに使う
+	 * 
+	 * @param items
+	 *            ホスト側のリスト（変更可能であること）
+	 * @param accessor
+	 *            項目のIDとタイトルを取り出す{@link ItemAccessor}
+	 */
+	public void setItems(List<T> items, ItemAccessor<T> accessor) {
+		unlinkTransfer();
+		mModel.setItems(items, accessor);
+
+		if (mConcurrentModel != null) {
+			// 古いリストからのスナップショットで新しいリストを上書きしないよう、バックグラウンド側も入れ替える
+			mConcurrentModel.mirror(ConcurrentListModel.replaceAllMutation(items));
+		}
+
+		if (mAdapter != null) {
+			// 既に表示中なら作り直す
+			mAdapter = new EditableListItemAdapter(getActivity(), mListLayoutId, items);
+			setListAdapter(mAdapter);
+		}
+		checkMemoryBudget();
+	}
+
+	/**
+	 * @return 表示中のリスト（{@link #setItems(List, ItemAccessor)}で渡した場合はそのリスト自身）
+	 */
+	public List<T> getItems() {
+		return mModel.getItems();
+	}
+
+	/**
+	 * argsで渡された{@link SimpleListItem}のリストを使う
+	 */
+	@SuppressWarnings("unchecked")
+	private void setItemsFromArguments(Bundle args) {
+		List<SimpleListItem> items = args != null ? args.<SimpleListItem> getParcelableArrayList(SimpleListItem.KEY) : null;
+		if (items == null) {
+			items = new ArrayList<SimpleListItem>();
+		}
+		mModel.setItems((List<T>) items, (ItemAccessor<T>) SimpleListItem.ACCESSOR);
+	}
+
 	/**
 	 * オレオレタグをセットする（{@link Fragment#getTag()}で取れるものとは別）
 	 * 
@@ -214,31 +569,218 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 	}
 
 	/**
-	 * Activity側でModelの処理が成功した場合に呼ばれ、保存済みの項目が反映される
+	 * どのスレッドからでもリストを変更できる{@link ConcurrentListModel}を返す。<br>
+	 * モデルへの変更は書き込みスレッドでまとめて適用され、次のUIスレッドのループでリストに反映される（{@link OnListChangedListener}には通知されない）。<br>
+	 * 画面上での追加・編集・削除・並べ替えもモデルに反映される。
+	 * 
+	 * @return このリストのモデル（onViewCreated以降、初回呼び出し時に生成される）
+	 */
+	public ConcurrentListModel<T> getConcurrentModel() {
+		if (mConcurrentModel == null) {
+			final Handler handler = new Handler(Looper.getMainLooper());
+			List<T> items = mModel.getItems();
+			mConcurrentModel = new ConcurrentListModel<T>(items != null ? items : new ArrayList<T>(),
+					new Executor() {
+						@Override
+						public void execute(Runnable command) {
+							handler.post(command);
+						}
+					});
+			mConcurrentModel.setOnSnapshotListener(new ConcurrentListModel.OnSnapshotListener<T>() {
+				@Override
+				public void onSnapshot(List<T> snapshot) {
+					if (mDraggingPosition >= 0) {
+						// ドラッグ中に入れ替えると位置がずれるので、ドロップ後に反映する
+						mSnapshotDeferred = true;
+					} else if (mModel.getItems() != null && mModel.rebase(snapshot)) {
+						if (mAdapter != null) {
+							mAdapter.notifyDataSetChanged();
+						}
+						checkMemoryBudget();
+					}
+				}
+			});
+		}
+		return mConcurrentModel;
+	}
+
+	/**
+	 * Activity側でModelの処理が成功した場合に呼ばれ、保存済みの項目が反映される<br>
+	 * 表示中の内容と同じであれば、項目を渡されたインスタンスに差し替えるだけで再描画しない（判定には渡されたリストのハッシュ計算と、一致した場合の項目ごとの比較を行う）
 	 * 
 	 * @param items
 	 *            成功後の全項目
 	 */
-	public void performed(List<SimpleListItem> items) {
-		Log.d("list", "performed(" + items + ")");
+	public void performed(List<T> items) {
+		Log.d("list", "performed(size=" + items.size() + ")");
 		replaceItems(items);
 	}
 
 	/**
-	 * Activity側でModelの処理が失敗した場合に呼ばれ、リストの内容が元に戻る
+	 * Activity側でModelの処理が成功した場合に呼ばれ、保存済みの項目が反映される<br>
+	 * versionが現在の{@link #getListVersion()}と同じであれば、リストを調べずに何もしない
+	 * 
+	 * @param items
+	 *            成功後の全項目
+	 * @param version
+	 *            itemsが表示中のどのバージョンに対応するか（{@link OnListChangedListener}の呼び出し時に{@link #getListVersion()}で取得したもの）
+	 */
+	public void performed(List<T> items, long version) {
+		Log.d("list", "performed(version=" + version + ")");
+		if (mModel.replace(items, version)) {
+			onItemsReplaced();
+		}
+	}
+
+	/**
+	 * Activity側でModelの処理が失敗した場合に呼ばれ、リストの内容が元に戻る<br>
+	 * 直前の操作が別のリストとの間の移動だった場合は、移動元・移動先のどちらで呼んでも両方が移動前に戻る
 	 */
 	public void canceled() {
 		Log.d("list", "canceled()");
-		replaceItems(mCachedItems != null ? mCachedItems : new ArrayList<SimpleListItem>());
+		final EditableListFragment<T> peer = mTransferPeer;
+		unlinkTransfer();
+
+		if (mModel.cancel()) {
+			onItemsReplaced();
+		}
+		if (peer != null && peer.mModel.cancel()) {
+			peer.onItemsReplaced();
+		}
 	}
 
-	private void replaceItems(List<SimpleListItem> items) {
-		mItems.clear();
-		mItems.addAll(items);
+	/**
+	 * @return 表示中のリストのバージョン。追加・編集・削除・並べ替え・入れ替えのたびに変わる
+	 */
+	public long getListVersion() {
+		return mModel.getVersion();
+	}
+
+	private void replaceItems(List<T> items) {
+		if (mModel.replace(items)) {
+			onItemsReplaced();
+		}
+	}
+
+	/**
+	 * ホストからの指示でリストの内容が入れ替わった場合の処理
+	 */
+	private void onItemsReplaced() {
+		if (mConcurrentModel != null) {
+			mConcurrentModel.mirror(ConcurrentListModel.replaceAllMutation(mModel.getItems()));
+		}
 
 		if (mAdapter != null) {
 			mAdapter.notifyDataSetChanged();
 		}
+		checkMemoryBudget();
+	}
+
+	/**
+	 * メモリの予算を設定する。設定し直すと履歴と指紋のキャッシュを元に戻し、改めて予算と比べる
+	 * 
+	 * @param bytes
+	 *            予算（{@link ListMemoryStats#getBudgetedBytes()}と比べる概算バイト数。項目そのものは含めない）。0以下で無効
+	 */
+	public void setMemoryBudget(long bytes) {
+		mMemoryBudget = Math.max(0, bytes);
+
+		mShedLevel = SHED_NONE;
+		mModel.setCompactHistory(false);
+		mModel.setFingerprintCached(true);
+		checkMemoryBudget();
+	}
+
+	/**
+	 * @return 現在のメモリ使用量の概算
+	 */
+	public ListMemoryStats getMemoryStats() {
+		final List<T> items = mModel.getItems();
+		return new ListMemoryStats(items != null ? items.size() : 0, mModel.getItemBytes(), mModel.getHistoryBytes(), getCacheBytes(),
+				getBitmapBytes(), mMemoryBudget, mShedLevel, mOverBudget);
+	}
+
+	/**
+	 * 予算を超えていれば、収まるまで順にメモリを手放す（毎回の操作の後に呼ぶので、リストを走査しない）。<br>
+	 * すべて手放しても収まらない場合は{@link #mOverBudget}を立てて知らせ、以降の操作のたびに改めて比べる
+	 */
+	private void checkMemoryBudget() {
+		if (mMemoryBudget <= 0) {
+			mOverBudget = false;
+			return;
+		}
+		while (mShedLevel < SHED_ITEM_CACHES && getBudgetedBytes() > mMemoryBudget) {
+			shedMemory(mShedLevel + 1);
+		}
+
+		final boolean overBudget = getBudgetedBytes() > mMemoryBudget;
+		if (overBudget && !mOverBudget) {
+			Log.w("list", "memory budget exceeded: " + getBudgetedBytes() + " > " + mMemoryBudget);
+		}
+		mOverBudget = overBudget;
+	}
+
+	/**
+	 * 予算と比べる概算バイト数（項目そのものは手放せないので含めない）
+	 */
+	private long getBudgetedBytes() {
+		return mModel.getHistoryBytes() + getCacheBytes() + getBitmapBytes();
+	}
+
+	/**
+	 * システムからメモリ不足を通知された場合の処理
+	 * 
+	 * @param level
+	 *            少なくともどこまで手放すか
+	 */
+	void onMemoryPressure(int level) {
+		if (mMemoryBudget <= 0) {
+			return;
+		}
+		Log.d("list", "onMemoryPressure(" + level + ")");
+		while (mShedLevel < level) {
+			shedMemory(mShedLevel + 1);
+		}
+		checkMemoryBudget();
+	}
+
+	/**
+	 * 1段階分のメモリを手放す
+	 */
+	private void shedMemory(int level) {
+		mShedLevel = level;
+		if (level == SHED_DRAG_CACHES) {
+			releaseDragCaches();
+		} else if (level == SHED_HISTORY) {
+			mModel.setCompactHistory(true);
+		} else if (level == SHED_ITEM_CACHES) {
+			mModel.setFingerprintCached(false);
+		}
+	}
+
+	private void releaseDragCaches() {
+		if (getView() != null) {
+			((SortableListView) getListView()).releaseDragCache();
+		}
+		if (mRowViewPool != null) {
+			mRowViewPool.clear();
+			mRowViewPool = null;
+		}
+	}
+
+	private long getCacheBytes() {
+		long bytes = mModel.getFingerprintBytes();
+		if (mSectionIndex != null) {
+			bytes += mSectionIndex.estimateBytes();
+		}
+		if (mRowViewPool != null) {
+			bytes += (long) ESTIMATED_ROW_VIEW_BYTES * mRowViewPool.size();
+		}
+		return bytes;
+	}
+
+	private long getBitmapBytes() {
+		return getView() != null ? ((SortableListView) getListView()).getDragCacheBytes() : 0;
 	}
 
 	private void onClickPlusOne() {
@@ -251,21 +793,8 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 				.setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
 					@Override
 					public void onClick(DialogInterface dialog, int which) {
-						mCachedItems = new ArrayList<SimpleListItem>(mItems);
-
 						String text = etInput.getText() == null ? "" : etInput.getText().toString();
-
-						SimpleListItem addItem = new SimpleListItem(null, text);
-
-						mItems.add(addItem);
-
-						if (mListener != null) {
-							mListener.onListChanged(mItems, getAvailableTag(), ADD, addItem);
-						}
-
-						if (mAdapter != null) {
-							mAdapter.notifyDataSetChanged();
-						}
+						addItem(text);
 					}
 				}).setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
 					@Override
@@ -275,11 +804,10 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 				}).show();
 	}
 
-	private void onClickEdit(SimpleListItem _item) {
+	private void onClickEdit(T _item) {
 		Log.d("list", "onClickEdit");
-		final SimpleListItem item = _item;
-		final int position = mItems.indexOf(item);
-		String title = item.getTitle();
+		final T item = _item;
+		String title = mModel.getAccessor().getTitle(item);
 		String dialogTitle = getString(R.string.edit_title, (TextUtils.isEmpty(title) ? "" : title));
 
 		LayoutInflater inflater = LayoutInflater.from(getActivity());
@@ -291,21 +819,8 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 				.setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
 					@Override
 					public void onClick(DialogInterface dialog, int which) {
-						mCachedItems = new ArrayList<SimpleListItem>(mItems); // キャッシュを保存
-
 						String text = etInput.getText() == null ? "" : etInput.getText().toString();
-
-						SimpleListItem editedItem = new SimpleListItem(item.getId(), text);
-
-						mItems.set(position, editedItem);
-
-						if (mListener != null) {
-							mListener.onListChanged(mItems, getAvailableTag(), EDIT, editedItem);
-						}
-
-						if (mAdapter != null) {
-							mAdapter.notifyDataSetChanged();
-						}
+						editItem(item, text);
 					}
 				}).setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
 					@Override
@@ -315,24 +830,14 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 				}).show();
 	}
 
-	private void onClickDelete(SimpleListItem _item) {
-		final SimpleListItem item = _item;
+	private void onClickDelete(T _item) {
+		final T item = _item;
 
-		new AlertDialog.Builder(getActivity()).setTitle(R.string.delete_confirm).setMessage(item.getTitle())
+		new AlertDialog.Builder(getActivity()).setTitle(R.string.delete_confirm).setMessage(mModel.getAccessor().getTitle(item))
 				.setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
 					@Override
 					public void onClick(DialogInterface dialog, int which) {
-						mCachedItems = new ArrayList<SimpleListItem>(mItems); // キャッシュを保存
-
-						mItems.remove(item);
-
-						if (mListener != null) {
-							mListener.onListChanged(mItems, getAvailableTag(), DEL, item);
-						}
-
-						if (mAdapter != null) {
-							mAdapter.notifyDataSetChanged();
-						}
+						deleteItem(item);
 					}
 				}).setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
 					@Override
@@ -343,36 +848,263 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 
 	}
 
+	/**
+	 * 項目を末尾に追加し、リスナに通知する
+	 * 
+	 * @param text
+	 *            追加する項目のタイトル
+	 */
+	private void addItem(String text) {
+		unlinkTransfer();
+		T addItem = mModel.add(text);
+
+		if (mListener != null) {
+			mListener.onListChanged(mModel.getItems(), getAvailableTag(), ADD, addItem);
+		}
+
+		if (mAdapter != null) {
+			mAdapter.notifyDataSetChanged();
+		}
+		checkMemoryBudget();
+	}
+
+	/**
+	 * 項目のタイトルを変更し、リスナに通知する
+	 * 
+	 * @param item
+	 *            変更前の項目
+	 * @param text
+	 *            新しいタイトル
+	 */
+	private void editItem(T item, String text) {
+		T editedItem = mModel.edit(item, text);
+		if (editedItem == null) {
+			return; // 編集中に別の操作で消えている
+		}
+		unlinkTransfer();
+
+		if (mListener != null) {
+			mListener.onListChanged(mModel.getItems(), getAvailableTag(), EDIT, editedItem);
+		}
+
+		if (mAdapter != null) {
+			mAdapter.notifyDataSetChanged();
+		}
+		checkMemoryBudget();
+	}
+
+	/**
+	 * 項目を削除し、リスナに通知する
+	 * 
+	 * @param item
+	 *            削除する項目
+	 */
+	private void deleteItem(T item) {
+		if (!mModel.delete(item)) {
+			return; // 別の操作で既に消えている
+		}
+		unlinkTransfer();
+
+		if (mListener != null) {
+			mListener.onListChanged(mModel.getItems(), getAvailableTag(), DEL, item);
+		}
+
+		if (mAdapter != null) {
+			mAdapter.notifyDataSetChanged();
+		}
+		checkMemoryBudget();
+	}
+
+	/**
+	 * 並べ替え中の項目を別のリストへ移し、移動元のリスナに1回だけ通知する
+	 * 
+	 * @param positionFrom
+	 *            移動元での位置
+	 * @param target
+	 *            移動先
+	 * @param positionTo
+	 *            移動先に挿入する位置
+	 */
+	private void transferItem(int positionFrom, EditableListFragment<T> target, int positionTo) {
+		target.unlinkTransfer();
+		positionTo = Math.max(0, Math.min(positionTo, target.mModel.getItems().size()));
+
+		T item = mModel.transferTo(positionFrom, target.mModel, positionTo);
+		mTransferPeer = target;
+		target.mTransferPeer = this;
+
+		if (mTransferListener != null) {
+			mTransferListener.onListTransferred(mModel.getItems(), getAvailableTag(), positionFrom, target.mModel.getItems(),
+					target.getAvailableTag(), positionTo, item);
+		}
+
+		if (mAdapter != null) {
+			mAdapter.notifyDataSetChanged();
+		}
+		if (target.mAdapter != null) {
+			target.mAdapter.notifyDataSetChanged();
+		}
+		target.checkMemoryBudget();
+	}
+
+	/**
+	 * 別のリストとの間の移動の相手を忘れる（以降の{@link #canceled()}は自分だけを戻す）
+	 */
+	private void unlinkTransfer() {
+		if (mTransferPeer != null) {
+			mTransferPeer.mTransferPeer = null;
+			mTransferPeer = null;
+		}
+	}
+
+	/**
+	 * ドロップ先のListViewを表示している{@link EditableListFragment}を探す
+	 * 
+	 * @return 移動先にできない場合（自分自身、項目が未設定、{@link ItemAccessor}が異なる）はnull
+	 */
+	@SuppressWarnings("unchecked")
+	private EditableListFragment<T> findTransferTarget(SortableListView target) {
+		SortableListView.DragListener listener = target.getDragListener();
+		if (!(listener instanceof EditableListFragment.DragListener)) {
+			return null;
+		}
+		EditableListFragment<?> fragment = ((EditableListFragment<?>.DragListener) listener).getFragment();
+		if (fragment == this || fragment.mModel.getItems() == null || fragment.mModel.getAccessor() != mModel.getAccessor()) {
+			return null;
+		}
+		return (EditableListFragment<T>) fragment;
+	}
+
+	/**
+	 * インライン入力行で項目の編集を開始する
+	 * 
+	 * @param item
+	 *            編集する項目
+	 */
+	private void startInlineEdit(T item) {
+		mInlineEditingItem = item;
+
+		String title = mModel.getAccessor().getTitle(item);
+		mInlineInput.setText(TextUtils.isEmpty(title) ? "" : title);
+		mInlineInput.setSelection(mInlineInput.length());
+		mInlineDelete.setVisibility(View.VISIBLE);
+
+		mInlineInput.requestFocus();
+		getInputMethodManager().showSoftInput(mInlineInput, InputMethodManager.SHOW_IMPLICIT);
+	}
+
+	/**
+	 * インライン入力行の内容を確定する（編集中の項目があれば編集、なければ追加）
+	 */
+	private void commitInline() {
+		String text = mInlineInput.getText() == null ? "" : mInlineInput.getText().toString();
+
+		if (mInlineEditingItem != null) {
+			editItem(mInlineEditingItem, text);
+		} else if (!TextUtils.isEmpty(text)) {
+			addItem(text);
+			if (mRapidEntry) {
+				getListView().setSelection(mModel.getItems().size() - 1);
+			}
+		}
+
+		resetInlineEditor();
+	}
+
+	/**
+	 * インライン入力行を追加待ちの状態に戻す
+	 */
+	private void resetInlineEditor() {
+		mInlineEditingItem = null;
+		mInlineInput.setText("");
+		mInlineDelete.setVisibility(View.GONE);
+
+		if (!mRapidEntry) {
+			mInlineInput.clearFocus();
+			getInputMethodManager().hideSoftInputFromWindow(mInlineInput.getWindowToken(), 0);
+		}
+	}
+
+	private InputMethodManager getInputMethodManager() {
+		return (InputMethodManager) getActivity().getSystemService(Context.INPUT_METHOD_SERVICE);
+	}
+
+	/**
+	 * 項目のセクションのキーを求める
+	 */
+	private String getSectionKey(T item) {
+		if (mSectionKeyResolver != null) {
+			return mSectionKeyResolver.getSectionKey(item);
+		}
+		String title = mModel.getAccessor().getTitle(item);
+		return TextUtils.isEmpty(title) ? "#" : String.valueOf(Character.toUpperCase(title.charAt(0)));
+	}
+
+	/**
+	 * 高速スクロール用のインデックスを現在の項目から作り直す
+	 */
+	private void rebuildSectionIndex() {
+		List<T> items = mModel.getItems();
+		if (mSectionIndex == null || items == null) {
+			return;
+		}
+		List<String> keys = new ArrayList<String>(items.size());
+		for (T item : items) {
+			keys.add(getSectionKey(item));
+		}
+		mSectionIndex.reset(keys);
+	}
+
 	public String getAvailableTag() {
 		return mTag != null ? mTag : getTag(); // オレオレタグがなければ本家を返す
 	}
 
 	/**
-	 * {@link SimpleListItem}のtitleフィールドを表示する{@link ArrayAdapter}
+	 * {@link ItemAccessor#getTitle(Object)}で取り出したタイトルを表示する{@link ArrayAdapter}
 	 * 
 	 * @author nakagawa
 	 * 
 	 */
-	class EditableListItemAdapter extends ArrayAdapter<SimpleListItem> {
+	class EditableListItemAdapter extends ArrayAdapter<T> implements SectionIndexer {
 
-		public EditableListItemAdapter(Context context, int textViewResourceId, List<SimpleListItem> objects) {
-			super(context, textViewResourceId, objects);
+		public EditableListItemAdapter(Context context, int resource, List<T> objects) {
+			// 行全体をTextViewとして扱わないよう、KEY_LIST_LAYOUT_IDの約束どおりandroid.R.id.text1を指定する（複雑なレイアウトでも使える）
+			super(context, resource, android.R.id.text1, objects);
 		}
 
 		@Override
 		public View getView(int position, View convertView, ViewGroup parent) {
 
-			final SimpleListItem item = getItem(position);
+			final T item = getItem(position);
+
+			if (convertView == null && mRowViewPool != null) {
+				convertView = mRowViewPool.obtain(mListLayoutId);
+			}
 
 			View view = super.getView(position, convertView, parent);
 
-			final String title = item.getTitle();
+			final String title = mModel.getAccessor().getTitle(item);
 
 			TextView text1 = (TextView) view.findViewById(android.R.id.text1);
 			text1.setText(TextUtils.isEmpty(title) ? "" : title);
 
 			return view;
 		}
+
+		@Override
+		public Object[] getSections() {
+			return mSectionIndex != null ? mSectionIndex.getSections() : new Object[0];
+		}
+
+		@Override
+		public int getPositionForSection(int section) {
+			return mSectionIndex != null ? mSectionIndex.getPositionForSection(section) : 0;
+		}
+
+		@Override
+		public int getSectionForPosition(int position) {
+			return mSectionIndex != null ? mSectionIndex.getSectionForPosition(position) : 0;
+		}
 	}
 
 	/**
@@ -381,10 +1113,11 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 	 * @author shogogg
 	 * 
 	 */
-	class DragListener extends SortableListView.SimpleDragListener {
+	class DragListener extends SortableListView.SimpleDragListener implements SortableListView.TransferListener {
 		@Override
 		public int onStartDrag(int position) {
-			mCachedItems = new ArrayList<SimpleListItem>(mItems); // キャッシュを保存
+			unlinkTransfer();
+			mModel.startMove(position);
 
 			mDraggingPosition = position;
 			getListView().invalidateViews();
@@ -396,26 +1129,7 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 			if (positionFrom < 0 || positionTo < 0 || positionFrom == positionTo) {
 				return positionFrom;
 			}
-			int i;
-			if (positionFrom < positionTo) {
-				final int min = positionFrom;
-				final int max = positionTo;
-				final SimpleListItem data = mItems.get(min);
-				i = min;
-				while (i < max) {
-					mItems.set(i, mItems.get(++i));
-				}
-				mItems.set(max, data);
-			} else if (positionFrom > positionTo) {
-				final int min = positionTo;
-				final int max = positionFrom;
-				final SimpleListItem data = mItems.get(max);
-				i = max;
-				while (i > min) {
-					mItems.set(i, mItems.get(--i));
-				}
-				mItems.set(min, data);
-			}
+			mModel.move(positionFrom, positionTo);
 			mDraggingPosition = positionTo;
 			getListView().invalidateViews();
 			return positionTo;
@@ -425,12 +1139,135 @@ public class EditableListFragment extends SherlockListFragment implements OnItem
 		public boolean onStopDrag(int positionFrom, int positionTo) {
 
 			if (mListener != null) {
-				mListener.onListChanged(mItems, getAvailableTag(), SORT, null);
+				mListener.onListChanged(mModel.getItems(), getAvailableTag(), SORT, null);
 			}
 
+			finishDrag();
+			return super.onStopDrag(positionFrom, positionTo);
+		}
+
+		@Override
+		public boolean canTransfer(SortableListView target) {
+			return mTransferListener != null && findTransferTarget(target) != null;
+		}
+
+		@Override
+		public boolean onTransfer(int positionFrom, SortableListView target, int positionTo) {
+			EditableListFragment<T> targetFragment = findTransferTarget(target);
+			if (targetFragment == null || positionFrom < 0) {
+				// ドラッグ中に移動先が使えなくなった場合は、同じリスト内での並べ替えとして終える
+				return onStopDrag(positionFrom, positionFrom);
+			}
+
+			transferItem(positionFrom, targetFragment, positionTo);
+			finishDrag();
+			return true;
+		}
+
+		EditableListFragment<T> getFragment() {
+			return EditableListFragment.this;
+		}
+
+		private void finishDrag() {
 			mDraggingPosition = -1;
 			getListView().invalidateViews();
-			return super.onStopDrag(positionFrom, positionTo);
+
+			if (mSnapshotDeferred && mConcurrentModel != null) {
+				mSnapshotDeferred = false;
+				mConcurrentModel.republish();
+			}
+
+			if (mShedLevel >= SHED_DRAG_CACHES) {
+				releaseDragCaches();
+			}
+			checkMemoryBudget();
+		}
+	}
+
+	/**
+	 * onTrimMemoryをメモリ不足の段階に変換するコールバック（API 14以上でのみ生成する）
+	 * 
+	 * @author nakagawa
+	 * 
+	 */
+	class TrimMemoryCallbacks implements ComponentCallbacks2 {
+		/** ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL（API 16で追加されたのでtarget=android-15では値で比べる） */
+		private static final int TRIM_MEMORY_RUNNING_CRITICAL_LEVEL = 15;
+
+		/** ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW（同上） */
+		private static final int TRIM_MEMORY_RUNNING_LOW_LEVEL = 10;
+
+		@Override
+		public void onTrimMemory(int level) {
+			if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL_LEVEL) {
+				onMemoryPressure(SHED_ITEM_CACHES);
+			} else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW_LEVEL) {
+				onMemoryPressure(SHED_HISTORY);
+			} else {
+				onMemoryPressure(SHED_DRAG_CACHES);
+			}
+		}
+
+		@Override
+		public void onLowMemory() {
+			// Fragment#onLowMemory()にも届くので、ここでは何もしない
+		}
+
+		@Override
+		public void onConfigurationChanged(Configuration newConfig) {
+		}
+	}
+
+	/**
+	 * {@link EditableListModel}の変更をインデックスと{@link ConcurrentListModel}に反映するオブザーバ
+	 * 
+	 * @author nakagawa
+	 * 
+	 */
+	class ModelObserver implements EditableListModel.Observer<T> {
+		@Override
+		public void onItemInserted(int position, T item) {
+			if (mSectionIndex != null) {
+				mSectionIndex.insert(position, getSectionKey(item));
+			}
+			if (mConcurrentModel != null) {
+				mConcurrentModel.mirror(ConcurrentListModel.addMutation(mModel.getItems(), position));
+			}
+		}
+
+		@Override
+		public void onItemChanged(int position, T oldItem, T newItem) {
+			if (mSectionIndex != null) {
+				mSectionIndex.set(position, getSectionKey(newItem));
+			}
+			if (mConcurrentModel != null) {
+				mConcurrentModel.mirror(ConcurrentListModel.replaceMutation(oldItem, newItem));
+			}
+		}
+
+		@Override
+		public void onItemRemoved(int position, T item) {
+			if (mSectionIndex != null) {
+				mSectionIndex.remove(position);
+			}
+			if (mConcurrentModel != null) {
+				mConcurrentModel.mirror(ConcurrentListModel.<T> removeMutation(item));
+			}
+		}
+
+		@Override
+		public void onItemMoved(int positionFrom, int positionTo) {
+			if (mSectionIndex != null) {
+				mSectionIndex.move(positionFrom, positionTo);
+			}
+			if (mConcurrentModel != null) {
+				mConcurrentModel.mirror(ConcurrentListModel.moveMutation(mModel.getItems(), positionTo));
+			}
+		}
+
+		@Override
+		public void onItemsReplaced() {
+			rebuildSectionIndex();
 		}
 	}
 }
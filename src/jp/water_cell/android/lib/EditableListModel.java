@@ -0,0 +1,601 @@
+package jp.water_cell.android.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link EditableListFragment}が表示するリストの中身。<br>
+ * 追加・編集・削除・並べ替えと、Activity側の処理が失敗した場合に戻すためのキャッシュ、リストの指紋とバージョンを管理する。<br>
+ * Androidに依存しないので、JVM上で単体で動かせる。
+ *
+ * @author nakagawa
+ *
+ * @param <T>
+ *            項目の型
+ */
+class EditableListModel<T> {
+
+	/**
+	 * 項目単位の変更を受け取るオブザーバ（インデックスなど、リストから派生する情報の更新用）
+	 *
+	 * @param <T>
+	 *            項目の型
+	 */
+	interface Observer<T> {
+		void onItemInserted(int position, T item);
+
+		void onItemChanged(int position, T oldItem, T newItem);
+
+		void onItemRemoved(int position, T item);
+
+		void onItemMoved(int positionFrom, int positionTo);
+
+		/** リスト全体が入れ替わった */
+		void onItemsReplaced();
+	}
+
+	/** 参照1つ分の概算バイト数 */
+	static final int REFERENCE_BYTES = 4;
+
+	/** オブジェクトのヘッダの概算バイト数 */
+	static final int OBJECT_BYTES = 16;
+
+	/** 文字列（Stringとchar[]のヘッダ）の概算バイト数。これに文字数×2が加わる */
+	static final int STRING_BYTES = 40;
+
+	/** 取り消し操作なし */
+	private static final int UNDO_NONE = 0;
+
+	/** mUndoPositionの項目を削除して戻す */
+	private static final int UNDO_REMOVE = 1;
+
+	/** mUndoPositionにmUndoItemを挿入して戻す */
+	private static final int UNDO_INSERT = 2;
+
+	/** mUndoPositionをmUndoItemに置き換えて戻す */
+	private static final int UNDO_SET = 3;
+
+	/** mUndoPosition2にある項目をmUndoPositionへ移動して戻す */
+	private static final int UNDO_MOVE = 4;
+
+	private List<T> mItems;
+
+	/** Activity側の処理が失敗した場合に戻す内容（履歴を圧縮している間はnull） */
+	private List<T> mCachedItems = new ArrayList<T>();
+
+	private ItemAccessor<T> mAccessor;
+
+	private Observer<T> mObserver;
+
+	/** 表示中のリストの指紋（追加・編集・削除・並べ替えのたびに差分で更新する） */
+	private final ListFingerprint mFingerprint = new ListFingerprint();
+
+	/** {@link #mCachedItems}を保存した時点の指紋 */
+	private long mCachedFingerprint;
+
+	/** 変更のたびに進むバージョン */
+	private long mVersion;
+
+	/** 直前の操作を取り消す操作の種類（{@link #mCachedItems}の代わりに使う） */
+	private int mUndoType = UNDO_NONE;
+
+	private int mUndoPosition;
+
+	private int mUndoPosition2;
+
+	private T mUndoItem;
+
+	/** 取り消し操作を記録した時点のバージョン（以降に別の変更があれば取り消せない） */
+	private long mUndoVersion;
+
+	/** trueの間は{@link #mCachedItems}を持たず、取り消し操作だけを記録する */
+	private boolean mCompactHistory;
+
+	/** falseの間は{@link #mFingerprint}を更新せず、指紋が必要になるたびにリストから計算する */
+	private boolean mFingerprintCached = true;
+
+	/** 項目の概算バイト数の合計 */
+	private long mItemBytes;
+
+	/**
+	 * 扱うリストをセットする（コピーせず、以降の変更はこのリストに直接行う）。<br>
+	 * 前のリストのキャッシュで新しいリストを上書きしないよう、キャッシュも新しいリストの内容にする
+	 */
+	void setItems(List<T> items, ItemAccessor<T> accessor) {
+		mItems = items;
+		mAccessor = accessor;
+		resetFingerprint();
+		mItemBytes = estimateBytes(mAccessor, mItems);
+		mVersion++;
+		saveCache();
+		mUndoType = UNDO_NONE;
+		mUndoItem = null;
+		if (mObserver != null) {
+			mObserver.onItemsReplaced();
+		}
+	}
+
+	void setObserver(Observer<T> observer) {
+		mObserver = observer;
+	}
+
+	List<T> getItems() {
+		return mItems;
+	}
+
+	List<T> getCachedItems() {
+		return mCachedItems;
+	}
+
+	ItemAccessor<T> getAccessor() {
+		return mAccessor;
+	}
+
+	long getVersion() {
+		return mVersion;
+	}
+
+	long getFingerprint() {
+		return mFingerprintCached ? mFingerprint.value() : ListFingerprint.compute(mAccessor, mItems);
+	}
+
+	/**
+	 * 履歴の圧縮を切り替える。<br>
+	 * trueの間はリスト全体のキャッシュを持たず、直前の操作を取り消す操作だけを記録する。
+	 * この場合{@link #cancel()}は、操作の後に{@link #replace(List)}などで内容が変わっていると何もしない
+	 */
+	void setCompactHistory(boolean compact) {
+		mCompactHistory = compact;
+		if (compact) {
+			mCachedItems = null;
+		}
+	}
+
+	boolean isCompactHistory() {
+		return mCompactHistory;
+	}
+
+	/**
+	 * 指紋の位置ごとのキャッシュを切り替える。<br>
+	 * falseの間はキャッシュを捨て、{@link #isSameContent(List)}などで指紋が必要になるたびにリスト全体から計算する
+	 */
+	void setFingerprintCached(boolean cached) {
+		if (mFingerprintCached == cached) {
+			return;
+		}
+		mFingerprintCached = cached;
+		if (cached) {
+			resetFingerprint();
+		} else {
+			mFingerprint.release();
+		}
+	}
+
+	boolean isFingerprintCached() {
+		return mFingerprintCached;
+	}
+
+	/** 項目の概算バイト数の合計（リスト自体の参照を含む） */
+	long getItemBytes() {
+		return mItemBytes;
+	}
+
+	/** 履歴（キャッシュと取り消し操作）の概算バイト数 */
+	long getHistoryBytes() {
+		final long undoBytes = OBJECT_BYTES + REFERENCE_BYTES;
+		if (mCachedItems == null) {
+			return undoBytes;
+		}
+		return undoBytes + OBJECT_BYTES + (long) REFERENCE_BYTES * mCachedItems.size();
+	}
+
+	/** 指紋のキャッシュの概算バイト数 */
+	long getFingerprintBytes() {
+		return mFingerprint.estimateBytes();
+	}
+
+	/**
+	 * 末尾に項目を追加する
+	 *
+	 * @return 追加した項目
+	 */
+	T add(String title) {
+		saveCache();
+
+		T addItem = mAccessor.newItem(title);
+		final int position = mItems.size();
+		insertItem(position, addItem);
+		setUndo(UNDO_REMOVE, position, 0, null);
+		return addItem;
+	}
+
+	/**
+	 * 項目のタイトルを変更する
+	 *
+	 * @return 変更後の項目。itemが見つからなければnull
+	 */
+	T edit(T item, String title) {
+		final int position = mItems.indexOf(item);
+		if (position < 0) {
+			return null; // 編集中に別の操作で消えている
+		}
+
+		saveCache();
+
+		T editedItem = mAccessor.copyWithTitle(item, title);
+		final T oldItem = setItem(position, editedItem);
+		setUndo(UNDO_SET, position, 0, oldItem);
+		return editedItem;
+	}
+
+	/**
+	 * 項目を削除する
+	 *
+	 * @return 削除できたか
+	 */
+	boolean delete(T item) {
+		final int position = mItems.indexOf(item);
+		if (position < 0) {
+			return false; // 別の操作で既に消えている
+		}
+
+		saveCache();
+
+		final T removed = removeItem(position);
+		setUndo(UNDO_INSERT, position, 0, removed);
+		return true;
+	}
+
+	/**
+	 * 並べ替えを開始する（キャッシュを保存する）
+	 *
+	 * @param position
+	 *            動かす項目の位置
+	 */
+	void startMove(int position) {
+		saveCache();
+		setUndo(UNDO_MOVE, position, position, null);
+	}
+
+	/**
+	 * 項目をpositionFromからpositionToへ移動し、間の項目をずらす
+	 */
+	void move(int positionFrom, int positionTo) {
+		if (positionFrom == positionTo) {
+			return;
+		}
+		int i;
+		if (positionFrom < positionTo) {
+			final int min = positionFrom;
+			final int max = positionTo;
+			final T data = mItems.get(min);
+			i = min;
+			while (i < max) {
+				mItems.set(i, mItems.get(++i));
+			}
+			mItems.set(max, data);
+		} else {
+			final int min = positionTo;
+			final int max = positionFrom;
+			final T data = mItems.get(max);
+			i = max;
+			while (i > min) {
+				mItems.set(i, mItems.get(--i));
+			}
+			mItems.set(min, data);
+		}
+		if (mObserver != null) {
+			mObserver.onItemMoved(positionFrom, positionTo);
+		}
+		if (mFingerprintCached) {
+			mFingerprint.move(positionFrom, positionTo);
+		}
+		mVersion++;
+
+		// 並べ替え中の項目を追いかける（別の項目が動かされたら取り消せない）
+		if (mUndoType == UNDO_MOVE && mUndoPosition2 == positionFrom && mUndoVersion == mVersion - 1) {
+			mUndoPosition2 = positionTo;
+			mUndoVersion = mVersion;
+		}
+	}
+
+	/**
+	 * 並べ替え中の項目を別のリストへ移す。<br>
+	 * 移動元の戻し先は{@link #startMove(int)}で保存したキャッシュのまま（ドラッグ開始前の状態）で、移動先は移す直前の状態をキャッシュに保存する
+	 *
+	 * @param positionFrom
+	 *            移動元での位置
+	 * @param target
+	 *            移動先
+	 * @param positionTo
+	 *            移動先に挿入する位置（0〜移動先の項目数）
+	 * @return 移した項目
+	 */
+	T transferTo(int positionFrom, EditableListModel<T> target, int positionTo) {
+		target.saveCache();
+
+		final boolean tracked = mUndoType == UNDO_MOVE && mUndoPosition2 == positionFrom && mUndoVersion == mVersion;
+		final T item = removeItem(positionFrom);
+		if (tracked) {
+			// 並べ替えの後に取り除いたので、並べ替え前の位置に戻せば元通りになる
+			setUndo(UNDO_INSERT, mUndoPosition, 0, item);
+		}
+		target.insertItem(positionTo, item);
+		target.setUndo(UNDO_REMOVE, positionTo, 0, null);
+		return item;
+	}
+
+	/**
+	 * キャッシュに保存した内容に戻す
+	 *
+	 * @return 内容が変わったか（変更がなかった場合はfalse）
+	 */
+	boolean cancel() {
+		if (mCachedItems == null) {
+			return undo();
+		}
+		mUndoType = UNDO_NONE;
+		mUndoItem = null;
+		if (mCachedFingerprint == getFingerprint() && isSameItems(mCachedItems)) {
+			return false; // 変更がなかった（同じ位置へのドロップなど）
+		}
+		return replace(mCachedItems);
+	}
+
+	/**
+	 * 記録しておいた取り消し操作を行う（履歴を圧縮している場合の{@link #cancel()}）
+	 *
+	 * @return 内容が変わったか
+	 */
+	private boolean undo() {
+		final int type = mUndoType;
+		final T item = mUndoItem;
+		final boolean valid = mUndoVersion == mVersion;
+		mUndoType = UNDO_NONE;
+		mUndoItem = null;
+		if (!valid) {
+			return false; // 操作の後に別の変更があった
+		}
+
+		switch (type) {
+		case UNDO_REMOVE:
+			if (mUndoPosition < mItems.size()) {
+				removeItem(mUndoPosition);
+				return true;
+			}
+			return false;
+		case UNDO_INSERT:
+			if (mUndoPosition <= mItems.size()) {
+				insertItem(mUndoPosition, item);
+				return true;
+			}
+			return false;
+		case UNDO_SET:
+			// ハッシュ値は"Aa"と"BB"のように衝突するので、IDとタイトルそのものを比べる
+			if (mUndoPosition < mItems.size() && !isSameItem(mItems.get(mUndoPosition), item)) {
+				setItem(mUndoPosition, item);
+				return true;
+			}
+			return false; // 同じタイトルへの編集
+		case UNDO_MOVE:
+			if (mUndoPosition2 != mUndoPosition && !isSameRun(mUndoPosition2, mUndoPosition)) {
+				move(mUndoPosition2, mUndoPosition);
+				return true;
+			}
+			return false; // 同じ位置へのドロップ、または同じ内容の項目を越えただけ（キャッシュとの比較と同じく変更なしとする）
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * 内容を入れ替える。<br>
+	 * 表示中の内容（IDとタイトル）と同じであれば、リスト全体の入れ替えはせず、項目をitemsのインスタンスに差し替えるだけにする
+	 * （ホストの項目クラスはIDとタイトル以外のフィールドが変わっていることがあるので、古いインスタンスを持ち続けない）<br>
+	 * 表示中のリストそのものを渡された場合は、ホストがその場で書き換えていても比べようがない（指紋のキャッシュを手放していると、指紋もこのリストから計算される）ので、
+	 * 比べずに常に変わったものとして作り直す
+	 *
+	 * @return 内容が変わったか
+	 */
+	boolean replace(List<T> items) {
+		if (items != mItems && isSameContent(items)) {
+			adoptItems(items);
+			return false;
+		}
+		if (items != mItems) {
+			// 表示中のリストそのものを渡された場合はclear()すると消えてしまう
+			mItems.clear();
+			mItems.addAll(items);
+		}
+		resetFingerprint();
+		mItemBytes = estimateBytes(mAccessor, mItems);
+		mVersion++;
+		if (mObserver != null) {
+			mObserver.onItemsReplaced();
+		}
+		return true;
+	}
+
+	/**
+	 * 内容が同じitemsのインスタンスに差し替える。IDとタイトルは変わらないので、指紋・概算バイト数・バージョンはそのまま
+	 */
+	private void adoptItems(List<T> items) {
+		final int size = items.size();
+		for (int i = 0; i < size; i++) {
+			final T item = items.get(i);
+			final T oldItem = mItems.get(i);
+			if (item != oldItem) {
+				mItems.set(i, item);
+				if (mObserver != null) {
+					mObserver.onItemChanged(i, oldItem, item);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 外部（バックグラウンドのスレッドなど）での変更を反映して内容を入れ替え、キャッシュもこの内容に合わせる。<br>
+	 * 以降の{@link #cancel()}で外部での変更が消えないよう、それ以前の操作は取り消せなくなる
+	 *
+	 * @return 内容が変わったか
+	 */
+	boolean rebase(List<T> items) {
+		if (!replace(items)) {
+			return false;
+		}
+		saveCache();
+		mUndoType = UNDO_NONE;
+		mUndoItem = null;
+		return true;
+	}
+
+	/**
+	 * 内容を入れ替える。versionが現在のバージョンと同じであれば、リストを調べずに何もしない
+	 *
+	 * @return 内容が変わったか
+	 */
+	boolean replace(List<T> items, long version) {
+		if (version == mVersion) {
+			return false;
+		}
+		return replace(items);
+	}
+
+	/**
+	 * 表示中のリストと内容・順序が同じかを判定する。<br>
+	 * 指紋はタイトルのハッシュ値から作るので、"Aa"と"BB"のように衝突することがある。指紋が一致した場合も項目ごとに確かめる
+	 */
+	boolean isSameContent(List<T> items) {
+		return items.size() == mItems.size() && ListFingerprint.compute(mAccessor, items) == getFingerprint() && isSameItems(items);
+	}
+
+	/**
+	 * 表示中のリストと、項目ごとのIDとタイトルがすべて同じか
+	 */
+	private boolean isSameItems(List<T> items) {
+		final int size = items.size();
+		if (size != mItems.size()) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (!isSameItem(items.get(i), mItems.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * positionFromの項目をpositionToへ動かしても内容が変わらないか（間の項目がすべて同じ内容か）
+	 */
+	private boolean isSameRun(int positionFrom, int positionTo) {
+		final T item = mItems.get(positionFrom);
+		final int max = Math.max(positionFrom, positionTo);
+		for (int i = Math.min(positionFrom, positionTo); i <= max; i++) {
+			if (!isSameItem(mItems.get(i), item)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * IDとタイトルが同じか
+	 */
+	private boolean isSameItem(T a, T b) {
+		if (a == b) {
+			return true;
+		}
+		return equalsString(mAccessor.getId(a), mAccessor.getId(b)) && equalsString(mAccessor.getTitle(a), mAccessor.getTitle(b));
+	}
+
+	private static boolean equalsString(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * 項目1つの概算バイト数（IDとタイトル、リストからの参照のみ。独自の項目クラスが持つそれ以外のフィールドは数えない）
+	 */
+	static <T> long estimateBytes(ItemAccessor<T> accessor, T item) {
+		return OBJECT_BYTES + REFERENCE_BYTES * 3 + estimateBytes(accessor.getId(item)) + estimateBytes(accessor.getTitle(item));
+	}
+
+	private static <T> long estimateBytes(ItemAccessor<T> accessor, List<T> items) {
+		long bytes = 0;
+		for (T item : items) {
+			bytes += estimateBytes(accessor, item);
+		}
+		return bytes;
+	}
+
+	private static long estimateBytes(String s) {
+		return s == null ? 0 : STRING_BYTES + 2L * s.length();
+	}
+
+	/**
+	 * キャッシュ（Activity側の処理が失敗した場合に戻す内容）を保存する
+	 */
+	private void saveCache() {
+		if (mCompactHistory) {
+			mCachedItems = null;
+			return;
+		}
+		mCachedItems = new ArrayList<T>(mItems);
+		mCachedFingerprint = getFingerprint();
+	}
+
+	/**
+	 * 直前の操作を取り消す操作を記録する（操作を終えた直後に呼ぶ）
+	 */
+	private void setUndo(int type, int position, int position2, T item) {
+		mUndoType = type;
+		mUndoPosition = position;
+		mUndoPosition2 = position2;
+		mUndoItem = item;
+		mUndoVersion = mVersion;
+	}
+
+	private void resetFingerprint() {
+		if (mFingerprintCached) {
+			mFingerprint.reset(mAccessor, mItems);
+		}
+	}
+
+	private void insertItem(int position, T item) {
+		mItems.add(position, item);
+		if (mObserver != null) {
+			mObserver.onItemInserted(position, item);
+		}
+		if (mFingerprintCached) {
+			mFingerprint.insert(position, ListFingerprint.hashOf(mAccessor, item));
+		}
+		mItemBytes += estimateBytes(mAccessor, item);
+		mVersion++;
+	}
+
+	private T setItem(int position, T item) {
+		final T oldItem = mItems.set(position, item);
+		if (mObserver != null) {
+			mObserver.onItemChanged(position, oldItem, item);
+		}
+		if (mFingerprintCached) {
+			mFingerprint.set(position, ListFingerprint.hashOf(mAccessor, item));
+		}
+		mItemBytes += estimateBytes(mAccessor, item) - estimateBytes(mAccessor, oldItem);
+		mVersion++;
+		return oldItem;
+	}
+
+	private T removeItem(int position) {
+		final T item = mItems.remove(position);
+		if (mObserver != null) {
+			mObserver.onItemRemoved(position, item);
+		}
+		if (mFingerprintCached) {
+			mFingerprint.remove(position);
+		}
+		mItemBytes -= estimateBytes(mAccessor, item);
+		mVersion++;
+		return item;
+	}
+}
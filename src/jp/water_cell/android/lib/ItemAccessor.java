@@ -0,0 +1,42 @@
+package jp.water_cell.android.lib;
+
+/**
+ * {@link EditableListFragment}がホスト側の項目を変換せずに扱うためのアクセサ
+ * 
+ * @author nakagawa
+ * 
+ * @param <T>
+ *            項目の型
+ */
+public interface ItemAccessor<T> {
+
+	/**
+	 * @return 項目のID（未保存の項目ならnull）
+	 */
+	String getId(T item);
+
+	/**
+	 * @return 一覧に表示するタイトル
+	 */
+	String getTitle(T item);
+
+	/**
+	 * 編集時に呼ばれる。元の項目は変更しないこと（失敗時に元に戻すため）
+	 * 
+	 * @param item
+	 *            編集前の項目
+	 * @param title
+	 *            新しいタイトル
+	 * @return タイトルだけを変えた項目のコピー
+	 */
+	T copyWithTitle(T item, String title);
+
+	/**
+	 * 追加時に呼ばれる
+	 * 
+	 * @param title
+	 *            入力されたタイトル
+	 * @return IDを持たない新しい項目
+	 */
+	T newItem(String title);
+}
@@ -0,0 +1,177 @@
+package jp.water_cell.android.lib;
+
+import java.util.List;
+
+/**
+ * リストの内容と順序を表す64bitの指紋。<br>
+ * 各項目のハッシュを位置ごとにキャッシュし、隣り合う項目の組（先頭・末尾は番兵との組）のハッシュの総和を指紋とする。
+ * 追加・編集・削除・移動では前後の組だけを差し替えるため、リスト全体を走査せずに更新できる。
+ *
+ * @author nakagawa
+ *
+ */
+final class ListFingerprint {
+
+	/** 先頭の前・末尾の後ろに置く番兵のハッシュ */
+	private static final int SENTINEL = 0x9E3779B9;
+
+	/** 位置ごとの項目のハッシュ */
+	private int[] mHashes = new int[16];
+
+	private int mSize = 0;
+
+	private long mValue = mix(SENTINEL, SENTINEL);
+
+	/**
+	 * 項目のハッシュを求める（{@link SimpleListItem#hashCode()}と同じ式）
+	 */
+	static <T> int hashOf(ItemAccessor<T> accessor, T item) {
+		final String id = accessor.getId(item);
+		final String title = accessor.getTitle(item);
+		int result = 31 + (id == null ? 0 : id.hashCode());
+		return 31 * result + (title == null ? 0 : title.hashCode());
+	}
+
+	/**
+	 * リスト全体の指紋を求める（O(n)）
+	 */
+	static <T> long compute(ItemAccessor<T> accessor, List<T> items) {
+		long value = 0;
+		int prev = SENTINEL;
+		for (T item : items) {
+			final int hash = hashOf(accessor, item);
+			value += mix(prev, hash);
+			prev = hash;
+		}
+		return value + mix(prev, SENTINEL);
+	}
+
+	/**
+	 * リスト全体から作り直す
+	 */
+	<T> void reset(ItemAccessor<T> accessor, List<T> items) {
+		mSize = 0;
+		ensureCapacity(items.size());
+		for (T item : items) {
+			mHashes[mSize++] = hashOf(accessor, item);
+		}
+		long value = 0;
+		int prev = SENTINEL;
+		for (int i = 0; i < mSize; i++) {
+			value += mix(prev, mHashes[i]);
+			prev = mHashes[i];
+		}
+		mValue = value + mix(prev, SENTINEL);
+	}
+
+	/** 現在の指紋 */
+	long value() {
+		return mValue;
+	}
+
+	/** 項目数 */
+	int size() {
+		return mSize;
+	}
+
+	/**
+	 * 位置ごとのハッシュのキャッシュを捨てる（再び使うには{@link #reset(ItemAccessor, List)}で作り直す）
+	 */
+	void release() {
+		mHashes = new int[16];
+		mSize = 0;
+		mValue = mix(SENTINEL, SENTINEL);
+	}
+
+	/** 位置ごとのハッシュのキャッシュの概算バイト数 */
+	long estimateBytes() {
+		return EditableListModel.OBJECT_BYTES + 4L * mHashes.length;
+	}
+
+	/**
+	 * 項目を挿入する
+	 */
+	void insert(int position, int hash) {
+		if (position < 0 || position > mSize) {
+			throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+		}
+		final int left = left(position);
+		final int right = position < mSize ? mHashes[position] : SENTINEL;
+		mValue += mix(left, hash) + mix(hash, right) - mix(left, right);
+
+		ensureCapacity(mSize + 1);
+		System.arraycopy(mHashes, position, mHashes, position + 1, mSize - position);
+		mHashes[position] = hash;
+		mSize++;
+	}
+
+	/**
+	 * 項目を削除する
+	 */
+	void remove(int position) {
+		checkPosition(position);
+		final int hash = mHashes[position];
+		final int left = left(position);
+		final int right = position + 1 < mSize ? mHashes[position + 1] : SENTINEL;
+		mValue += mix(left, right) - mix(left, hash) - mix(hash, right);
+
+		System.arraycopy(mHashes, position + 1, mHashes, position, mSize - position - 1);
+		mSize--;
+	}
+
+	/**
+	 * 項目を置き換える
+	 */
+	void set(int position, int hash) {
+		checkPosition(position);
+		final int old = mHashes[position];
+		if (old == hash) {
+			return;
+		}
+		final int left = left(position);
+		final int right = position + 1 < mSize ? mHashes[position + 1] : SENTINEL;
+		mValue += mix(left, hash) + mix(hash, right) - mix(left, old) - mix(old, right);
+		mHashes[position] = hash;
+	}
+
+	/**
+	 * 項目を移動する（移動後にtoの位置に来る）
+	 */
+	void move(int from, int to) {
+		if (from == to) {
+			return;
+		}
+		final int hash = mHashes[from];
+		remove(from);
+		insert(to, hash);
+	}
+
+	private int left(int position) {
+		return position > 0 ? mHashes[position - 1] : SENTINEL;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > mHashes.length) {
+			int[] hashes = new int[Math.max(capacity, mHashes.length * 2)];
+			System.arraycopy(mHashes, 0, hashes, 0, mSize);
+			mHashes = hashes;
+		}
+	}
+
+	private void checkPosition(int position) {
+		if (position < 0 || position >= mSize) {
+			throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+		}
+	}
+
+	/** 隣り合う2項目の組のハッシュ（順序を区別する） */
+	private static long mix(int left, int right) {
+		long h = ((long) left << 32) ^ (right & 0xFFFFFFFFL);
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,105 @@
+package jp.water_cell.android.lib;
+
+/**
+ * {@link EditableListFragment}が使っているメモリの概算。<br>
+ * {@link EditableListFragment#getMemoryStats()}で取得する。値はオブジェクトの大きさからの見積もりで、実際のヒープ使用量とは一致しない。<br>
+ * 予算と比べるのはFragment自身が持つ履歴・キャッシュ・Bitmap（{@link #getBudgetedBytes()}）で、項目そのものは含めない。
+ *
+ * @author nakagawa
+ *
+ */
+public final class ListMemoryStats {
+
+	private final int mItemCount;
+
+	private final long mItemBytes;
+
+	private final long mHistoryBytes;
+
+	private final long mCacheBytes;
+
+	private final long mBitmapBytes;
+
+	private final long mBudgetBytes;
+
+	private final int mShedLevel;
+
+	private final boolean mOverBudget;
+
+	ListMemoryStats(int itemCount, long itemBytes, long historyBytes, long cacheBytes, long bitmapBytes, long budgetBytes, int shedLevel,
+			boolean overBudget) {
+		mItemCount = itemCount;
+		mItemBytes = itemBytes;
+		mHistoryBytes = historyBytes;
+		mCacheBytes = cacheBytes;
+		mBitmapBytes = bitmapBytes;
+		mBudgetBytes = budgetBytes;
+		mShedLevel = shedLevel;
+		mOverBudget = overBudget;
+	}
+
+	/** 項目数 */
+	public int getItemCount() {
+		return mItemCount;
+	}
+
+	/** 項目（IDとタイトル）の概算バイト数 */
+	public long getItemBytes() {
+		return mItemBytes;
+	}
+
+	/** 元に戻すためのキャッシュの概算バイト数 */
+	public long getHistoryBytes() {
+		return mHistoryBytes;
+	}
+
+	/** 指紋・セクションインデックス・事前にinflateした行の概算バイト数 */
+	public long getCacheBytes() {
+		return mCacheBytes;
+	}
+
+	/** ドラッグ用のBitmapのバイト数 */
+	public long getBitmapBytes() {
+		return mBitmapBytes;
+	}
+
+	/** 合計の概算バイト数 */
+	public long getTotalBytes() {
+		return mItemBytes + mHistoryBytes + mCacheBytes + mBitmapBytes;
+	}
+
+	/** 予算と比べる概算バイト数（履歴・キャッシュ・Bitmapの合計。項目そのものは含めない） */
+	public long getBudgetedBytes() {
+		return mHistoryBytes + mCacheBytes + mBitmapBytes;
+	}
+
+	/** 予算のバイト数（0なら無制限。{@link #getBudgetedBytes()}と比べる） */
+	public long getBudgetBytes() {
+		return mBudgetBytes;
+	}
+
+	/**
+	 * どこまでメモリを手放したか
+	 *
+	 * @return {@link EditableListFragment#SHED_NONE}、{@link EditableListFragment#SHED_DRAG_CACHES}、
+	 *         {@link EditableListFragment#SHED_HISTORY}、{@link EditableListFragment#SHED_ITEM_CACHES}のいずれか
+	 */
+	public int getShedLevel() {
+		return mShedLevel;
+	}
+
+	/**
+	 * 手放せるメモリをすべて手放しても予算を超えているか。<br>
+	 * 項目数に比例するセクションインデックスなど、手放せないキャッシュだけで予算を超えている場合にtrueになる
+	 */
+	public boolean isOverBudget() {
+		return mOverBudget;
+	}
+
+	@Override
+	public String toString() {
+		return "ListMemoryStats [itemCount=" + mItemCount + ", itemBytes=" + mItemBytes + ", historyBytes=" + mHistoryBytes
+				+ ", cacheBytes=" + mCacheBytes + ", bitmapBytes=" + mBitmapBytes + ", budgetBytes=" + mBudgetBytes + ", shedLevel="
+				+ mShedLevel + ", overBudget=" + mOverBudget + "]";
+	}
+}
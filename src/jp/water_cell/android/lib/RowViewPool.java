@@ -0,0 +1,153 @@
+package jp.water_cell.android.lib;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * 行のViewを事前にinflateしておくプール。<br>
+ * レイアウトIDごとに個数を指定でき、{@link #prewarm(LayoutInflater, ViewGroup, Runnable)}で
+ * UIスレッドの外でinflateする。プールが空になった後は通常通りAdapterがinflateする。
+ *
+ * @author nakagawa
+ *
+ */
+final class RowViewPool {
+
+	private static final String TAG = RowViewPool.class.getSimpleName();
+
+	/** レイアウトIDごとのinflate済みView（UIスレッドからのみ触る） */
+	private final SparseArray<LinkedList<View>> mPools = new SparseArray<LinkedList<View>>();
+
+	/** レイアウトIDごとのプールの大きさ */
+	private final SparseIntArray mSizes = new SparseIntArray();
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	/** {@link #clear()}のたびに進む世代。古い世代のinflate結果は捨てる */
+	private volatile int mGeneration = 0;
+
+	/**
+	 * プールの大きさを設定する
+	 *
+	 * @param layoutId
+	 *            行のレイアウトID
+	 * @param size
+	 *            事前にinflateしておく個数（0以下で無効）
+	 */
+	void setPoolSize(int layoutId, int size) {
+		mSizes.put(layoutId, Math.max(0, size));
+	}
+
+	/**
+	 * プールの大きさを取得する
+	 */
+	int getPoolSize(int layoutId) {
+		return mSizes.get(layoutId, 0);
+	}
+
+	/**
+	 * 設定された個数のViewを別スレッドでinflateする。完了するとUIスレッドでonFinishedが呼ばれる
+	 *
+	 * @param inflater
+	 *            元になるLayoutInflater（スレッドセーフではないため、別スレッドでは複製したものを使う）
+	 * @param parent
+	 *            LayoutParamsの生成に使う親（attachはしない）
+	 * @param onFinished
+	 *            完了時（失敗時も）に呼ばれる
+	 */
+	void prewarm(LayoutInflater inflater, final ViewGroup parent, final Runnable onFinished) {
+		final int generation = mGeneration;
+
+		// ActivityのLayoutInflaterはUIスレッドでも使われていて、createViewが共有のフィールドを書き換えるので、専用の複製を作る
+		final LayoutInflater workerInflater = inflater.cloneInContext(inflater.getContext());
+
+		final int[] layoutIds = new int[mSizes.size()];
+		final int[] sizes = new int[mSizes.size()];
+		for (int i = 0; i < layoutIds.length; i++) {
+			layoutIds[i] = mSizes.keyAt(i);
+			sizes[i] = mSizes.valueAt(i);
+		}
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final SparseArray<LinkedList<View>> inflated = new SparseArray<LinkedList<View>>();
+				try {
+					for (int i = 0; i < layoutIds.length && generation == mGeneration; i++) {
+						LinkedList<View> views = new LinkedList<View>();
+						for (int j = 0; j < sizes[i] && generation == mGeneration; j++) {
+							views.add(workerInflater.inflate(layoutIds[i], parent, false));
+						}
+						inflated.put(layoutIds[i], views);
+					}
+				} catch (RuntimeException e) {
+					// Looperが必要なViewなど、UIスレッド外でinflateできないレイアウトの場合はそこまでで諦める
+					Log.w(TAG, "prewarm stopped", e);
+				}
+
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (generation == mGeneration) {
+							for (int i = 0; i < inflated.size(); i++) {
+								getPool(inflated.keyAt(i)).addAll(inflated.valueAt(i));
+							}
+						}
+						onFinished.run();
+					}
+				});
+			}
+		}, TAG).start();
+	}
+
+	/**
+	 * プールからViewを取り出す（UIスレッドから呼ぶこと）
+	 *
+	 * @param layoutId
+	 * @return inflate済みのView。プールが空ならnull
+	 */
+	View obtain(int layoutId) {
+		List<View> pool = mPools.get(layoutId);
+		if (pool == null || pool.isEmpty()) {
+			return null;
+		}
+		return pool.remove(0);
+	}
+
+	/**
+	 * プールに残っているViewの数（UIスレッドから呼ぶこと）
+	 */
+	int size() {
+		int size = 0;
+		for (int i = 0; i < mPools.size(); i++) {
+			size += mPools.valueAt(i).size();
+		}
+		return size;
+	}
+
+	/**
+	 * 実行中のinflateを中断し、プールを空にする
+	 */
+	void clear() {
+		mGeneration++;
+		mPools.clear();
+	}
+
+	private LinkedList<View> getPool(int layoutId) {
+		LinkedList<View> pool = mPools.get(layoutId);
+		if (pool == null) {
+			pool = new LinkedList<View>();
+			mPools.put(layoutId, pool);
+		}
+		return pool;
+	}
+}
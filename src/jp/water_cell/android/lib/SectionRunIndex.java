@@ -0,0 +1,258 @@
+package jp.water_cell.android.lib;
+
+import java.util.List;
+
+/**
+ * 連続して同じキーを持つ項目をひとつのセクション（ラン）として扱うインデックス。<br>
+ * 項目の追加・編集・削除・移動のたびに該当箇所のランだけを更新するため、リスト全体を作り直す必要がない。<br>
+ * 位置からセクションへの変換は各ランの開始位置の二分探索で行う。
+ *
+ * @author nakagawa
+ *
+ */
+final class SectionRunIndex {
+
+	private static final String[] EMPTY = new String[0];
+
+	/** 各ランの開始位置（昇順） */
+	private int[] mStarts = new int[16];
+
+	/** 各ランのキー */
+	private String[] mKeys = new String[16];
+
+	/** ランの数 */
+	private int mRunCount = 0;
+
+	/** 項目数 */
+	private int mSize = 0;
+
+	/** {@link #getSections()}の結果（変更があるまで同じインスタンスを返す） */
+	private String[] mSections = EMPTY;
+
+	private boolean mSectionsDirty = false;
+
+	/**
+	 * キーの一覧からインデックスを作り直す
+	 *
+	 * @param keys
+	 *            各項目のキー
+	 */
+	void reset(List<String> keys) {
+		mRunCount = 0;
+		mSize = 0;
+		for (String key : keys) {
+			insert(mSize, key);
+		}
+		mSectionsDirty = true;
+	}
+
+	/** 項目数 */
+	int size() {
+		return mSize;
+	}
+
+	/** 概算バイト数（キーの文字列は項目と共有しているものとして数えない） */
+	long estimateBytes() {
+		return EditableListModel.OBJECT_BYTES * 3 + 4L * mStarts.length + (long) EditableListModel.REFERENCE_BYTES
+				* (mKeys.length + mSections.length);
+	}
+
+	/**
+	 * 項目を挿入する
+	 *
+	 * @param position
+	 *            挿入位置（0〜{@link #size()}）
+	 * @param key
+	 *            挿入する項目のキー
+	 */
+	void insert(int position, String key) {
+		if (position < 0 || position > mSize) {
+			throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+		}
+		if (mSize == 0) {
+			insertRun(0, 0, key);
+		} else {
+			final int r = position == mSize ? mRunCount - 1 : runOf(position);
+			if (equalsKey(mKeys[r], key)) {
+				// 同じキーのランを伸ばす
+				shiftStarts(r + 1, 1);
+			} else if (position == mStarts[r] && r > 0 && equalsKey(mKeys[r - 1], key)) {
+				// 直前のランの末尾に付け足す
+				shiftStarts(r, 1);
+			} else if (position == mSize) {
+				insertRun(mRunCount, position, key);
+			} else if (position == mStarts[r]) {
+				insertRun(r, position, key);
+				shiftStarts(r + 1, 1);
+			} else {
+				// ランの途中に挟まるので3つに分割する
+				insertRun(r + 1, position, key);
+				insertRun(r + 2, position + 1, mKeys[r]);
+				shiftStarts(r + 3, 1);
+			}
+		}
+		mSize++;
+		mSectionsDirty = true;
+	}
+
+	/**
+	 * 項目を削除する
+	 *
+	 * @param position
+	 *            削除する位置
+	 */
+	void remove(int position) {
+		checkPosition(position);
+		final int r = runOf(position);
+		if (runLength(r) > 1) {
+			shiftStarts(r + 1, -1);
+		} else {
+			removeRun(r);
+			shiftStarts(r, -1);
+			// 前後のランが同じキーになったら結合する
+			if (r > 0 && r < mRunCount && equalsKey(mKeys[r - 1], mKeys[r])) {
+				removeRun(r);
+			}
+		}
+		mSize--;
+		mSectionsDirty = true;
+	}
+
+	/**
+	 * 項目のキーを変更する
+	 *
+	 * @param position
+	 *            変更する位置
+	 * @param key
+	 *            新しいキー
+	 */
+	void set(int position, String key) {
+		if (equalsKey(keyAt(position), key)) {
+			return;
+		}
+		remove(position);
+		insert(position, key);
+	}
+
+	/**
+	 * 項目を移動する
+	 *
+	 * @param from
+	 *            移動元の位置
+	 * @param to
+	 *            移動先の位置（移動元を取り除いた後の位置ではなく、移動後の位置）
+	 */
+	void move(int from, int to) {
+		if (from == to) {
+			return;
+		}
+		final String key = keyAt(from);
+		remove(from);
+		insert(to, key);
+	}
+
+	/** 指定位置の項目のキー */
+	String keyAt(int position) {
+		checkPosition(position);
+		return mKeys[runOf(position)];
+	}
+
+	/** {@link android.widget.SectionIndexer#getSections()} */
+	Object[] getSections() {
+		if (mSectionsDirty) {
+			String[] sections = new String[mRunCount];
+			System.arraycopy(mKeys, 0, sections, 0, mRunCount);
+			mSections = sections;
+			mSectionsDirty = false;
+		}
+		return mSections;
+	}
+
+	/** {@link android.widget.SectionIndexer#getPositionForSection(int)} */
+	int getPositionForSection(int section) {
+		if (mRunCount == 0) {
+			return 0;
+		}
+		if (section < 0) {
+			return 0;
+		}
+		if (section >= mRunCount) {
+			return mSize - 1;
+		}
+		return mStarts[section];
+	}
+
+	/** {@link android.widget.SectionIndexer#getSectionForPosition(int)} */
+	int getSectionForPosition(int position) {
+		if (mRunCount == 0) {
+			return 0;
+		}
+		if (position < 0) {
+			return 0;
+		}
+		if (position >= mSize) {
+			return mRunCount - 1;
+		}
+		return runOf(position);
+	}
+
+	/** 指定位置を含むランを二分探索で求める */
+	private int runOf(int position) {
+		int low = 0;
+		int high = mRunCount - 1;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (mStarts[mid] <= position) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	private int runLength(int run) {
+		final int end = run + 1 < mRunCount ? mStarts[run + 1] : mSize;
+		return end - mStarts[run];
+	}
+
+	private void shiftStarts(int fromRun, int delta) {
+		for (int i = fromRun; i < mRunCount; i++) {
+			mStarts[i] += delta;
+		}
+	}
+
+	private void insertRun(int run, int start, String key) {
+		if (mRunCount == mStarts.length) {
+			final int capacity = mRunCount * 2;
+			int[] starts = new int[capacity];
+			String[] keys = new String[capacity];
+			System.arraycopy(mStarts, 0, starts, 0, mRunCount);
+			System.arraycopy(mKeys, 0, keys, 0, mRunCount);
+			mStarts = starts;
+			mKeys = keys;
+		}
+		System.arraycopy(mStarts, run, mStarts, run + 1, mRunCount - run);
+		System.arraycopy(mKeys, run, mKeys, run + 1, mRunCount - run);
+		mStarts[run] = start;
+		mKeys[run] = key;
+		mRunCount++;
+	}
+
+	private void removeRun(int run) {
+		System.arraycopy(mStarts, run + 1, mStarts, run, mRunCount - run - 1);
+		System.arraycopy(mKeys, run + 1, mKeys, run, mRunCount - run - 1);
+		mRunCount--;
+		mKeys[mRunCount] = null;
+	}
+
+	private void checkPosition(int position) {
+		if (position < 0 || position >= mSize) {
+			throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+		}
+	}
+
+	private static boolean equalsKey(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
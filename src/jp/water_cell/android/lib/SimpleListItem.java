@@ -13,9 +13,36 @@ public class SimpleListItem implements Parcelable {
 
 	public static final String KEY = SimpleListItem.class.getName() + "_key";
 
+	/** {@link EditableListFragment}で{@link SimpleListItem}を扱うための{@link ItemAccessor} */
+	public static final ItemAccessor<SimpleListItem> ACCESSOR = new ItemAccessor<SimpleListItem>() {
+
+		@Override
+		public String getId(SimpleListItem item) {
+			return item.getId();
+		}
+
+		@Override
+		public String getTitle(SimpleListItem item) {
+			return item.getTitle();
+		}
+
+		@Override
+		public SimpleListItem copyWithTitle(SimpleListItem item, String title) {
+			return new SimpleListItem(item.getId(), title);
+		}
+
+		@Override
+		public SimpleListItem newItem(String title) {
+			return new SimpleListItem(null, title);
+		}
+	};
+
 	private String id;
 	private String title;
 
+	/** {@link #hashCode()}のキャッシュ（0は未計算） */
+	private int hash;
+
 	public SimpleListItem(String id, String title) {
 		this.id = id;
 		this.title = title;
@@ -34,6 +61,7 @@ public class SimpleListItem implements Parcelable {
 	 */
 	public void setId(String id) {
 		this.id = id;
+		this.hash = 0;
 	}
 
 	/**
@@ -49,6 +77,7 @@ public class SimpleListItem implements Parcelable {
 	 */
 	public void setTitle(String title) {
 		this.title = title;
+		this.hash = 0;
 	}
 
 	private SimpleListItem(Parcel source) {
@@ -88,10 +117,14 @@ public class SimpleListItem implements Parcelable {
 	 */
 	@Override
 	public int hashCode() {
+		if (hash != 0) {
+			return hash;
+		}
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((id == null) ? 0 : id.hashCode());
 		result = prime * result + ((title == null) ? 0 : title.hashCode());
+		hash = result;
 		return result;
 	}
 
@@ -109,6 +142,8 @@ public class SimpleListItem implements Parcelable {
 		if (getClass() != obj.getClass())
 			return false;
 		SimpleListItem other = (SimpleListItem) obj;
+		if (hash != 0 && other.hash != 0 && hash != other.hash)
+			return false;
 		if (id == null) {
 			if (other.id != null)
 				return false;
@@ -0,0 +1,15 @@
+package android.util;
+
+/**
+ * JVMでストレステストを動かすための{@link android.util.Log}の代わり（使っているメソッドだけ。標準エラー出力に書く）
+ */
+public final class Log {
+
+	private Log() {
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		System.err.println("W/" + tag + ": " + msg + ": " + tr);
+		return 0;
+	}
+}
@@ -0,0 +1,178 @@
+package jp.water_cell.android.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link ConcurrentListModel}に、UIがまだ見ていない外部からの変更とUIでの操作が重なる場面を流し込み、合流した結果を確かめる。<br>
+ * UIへの通知は手で回すExecutorに積み、{@link EditableListFragment}と同じくドラッグ中はスナップショットを反映しない状態を作る。<br>
+ * JVM上で動く（Androidは不要）。実行方法は stress/build.xml を参照。
+ *
+ * @author nakagawa
+ *
+ */
+public class ConcurrentListModelCheck {
+
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	/** 手で回すUIスレッド */
+	private final Queue<Runnable> mUiQueue = new LinkedList<Runnable>();
+
+	private final Executor mUiExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			synchronized (mUiQueue) {
+				mUiQueue.offer(command);
+			}
+		}
+	};
+
+	public static void main(String[] args) throws InterruptedException {
+		ConcurrentListModelCheck check = new ConcurrentListModelCheck();
+		check.moveAfterExternalRemove();
+		check.insertAfterExternalRemove();
+		System.out.println("ConcurrentListModelCheck: OK");
+	}
+
+	/**
+	 * [a,b,c,d]で外部から"a"を消した後、UIが（まだ"a"が見えたまま）"b"を"c"の後ろへドラッグする
+	 */
+	void moveAfterExternalRemove() throws InterruptedException {
+		final EditableListModel<String> model = newModel(Arrays.asList("a", "b", "c", "d"));
+		final ConcurrentListModel<String> concurrent = newConcurrentModel(model);
+
+		concurrent.remove("a");
+		awaitSnapshot(concurrent, Arrays.asList("b", "c", "d"));
+
+		model.startMove(1);
+		model.move(1, 2);
+		check(model.getItems().equals(Arrays.asList("a", "c", "b", "d")), "ui order " + model.getItems());
+
+		awaitSnapshot(concurrent, Arrays.asList("c", "b", "d"));
+
+		runUi();
+		check(model.getItems().equals(Arrays.asList("c", "b", "d")), "rebased order " + model.getItems());
+		concurrent.release();
+	}
+
+	/**
+	 * [a,b,c,d]で外部から"a"を消した後、UIが（まだ"a"が見えたまま）別のリストから"x"を"a"の直後へ移す
+	 */
+	void insertAfterExternalRemove() throws InterruptedException {
+		final EditableListModel<String> model = newModel(Arrays.asList("a", "b", "c", "d"));
+		final ConcurrentListModel<String> concurrent = newConcurrentModel(model);
+		final EditableListModel<String> source = newModel(Arrays.asList("x"));
+
+		concurrent.remove("a");
+		awaitSnapshot(concurrent, Arrays.asList("b", "c", "d"));
+
+		source.startMove(0);
+		source.transferTo(0, model, 1);
+		check(model.getItems().equals(Arrays.asList("a", "x", "b", "c", "d")), "ui order " + model.getItems());
+
+		awaitSnapshot(concurrent, Arrays.asList("x", "b", "c", "d"));
+
+		runUi();
+		check(model.getItems().equals(Arrays.asList("x", "b", "c", "d")), "rebased order " + model.getItems());
+		concurrent.release();
+	}
+
+	private static EditableListModel<String> newModel(List<String> items) {
+		final EditableListModel<String> model = new EditableListModel<String>();
+		model.setItems(new ArrayList<String>(items), new ItemAccessor<String>() {
+			@Override
+			public String getId(String item) {
+				return item;
+			}
+
+			@Override
+			public String getTitle(String item) {
+				return item;
+			}
+
+			@Override
+			public String copyWithTitle(String item, String title) {
+				return title;
+			}
+
+			@Override
+			public String newItem(String title) {
+				return title;
+			}
+		});
+		return model;
+	}
+
+	/**
+	 * {@link EditableListFragment}と同じく、UIでの変更を書き込みスレッドへ反映し、届いたスナップショットでモデルを置き換える
+	 */
+	private ConcurrentListModel<String> newConcurrentModel(final EditableListModel<String> model) {
+		final ConcurrentListModel<String> concurrent = new ConcurrentListModel<String>(model.getItems(), mUiExecutor);
+		concurrent.setOnSnapshotListener(new ConcurrentListModel.OnSnapshotListener<String>() {
+			@Override
+			public void onSnapshot(List<String> snapshot) {
+				model.rebase(snapshot);
+			}
+		});
+		model.setObserver(new EditableListModel.Observer<String>() {
+			@Override
+			public void onItemInserted(int position, String item) {
+				concurrent.mirror(ConcurrentListModel.addMutation(model.getItems(), position));
+			}
+
+			@Override
+			public void onItemChanged(int position, String oldItem, String newItem) {
+				concurrent.mirror(ConcurrentListModel.replaceMutation(oldItem, newItem));
+			}
+
+			@Override
+			public void onItemRemoved(int position, String item) {
+				concurrent.mirror(ConcurrentListModel.<String> removeMutation(item));
+			}
+
+			@Override
+			public void onItemMoved(int positionFrom, int positionTo) {
+				concurrent.mirror(ConcurrentListModel.moveMutation(model.getItems(), positionTo));
+			}
+
+			@Override
+			public void onItemsReplaced() {
+			}
+		});
+		return concurrent;
+	}
+
+	/**
+	 * 書き込みスレッドが期待する内容のスナップショットを公開するまで待つ（時間切れなら最後のスナップショットを表示して失敗する）
+	 */
+	private static void awaitSnapshot(ConcurrentListModel<String> concurrent, List<String> expected) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!concurrent.getSnapshot().equals(expected)) {
+			check(System.currentTimeMillis() < deadline, "snapshot " + concurrent.getSnapshot() + " != " + expected);
+			Thread.sleep(1);
+		}
+	}
+
+	private void runUi() {
+		while (true) {
+			final Runnable command;
+			synchronized (mUiQueue) {
+				command = mUiQueue.poll();
+			}
+			if (command == null) {
+				return;
+			}
+			command.run();
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,594 @@
+package jp.water_cell.android.lib;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link EditableListModel}にランダムな ADD/EDIT/DEL/SORT/cancel/perform と、2つのリスト間での移動・両方の取り消しを大量に流し込むストレステスト。<br>
+ * 1操作ごとにリストごとの単純なArrayListで作った参照モデルと比較し、最後に操作ごとのスループットとヒープの最大使用量を表示する。<br>
+ * JVM上で動く（Androidは不要）。実行方法は stress/build.xml を参照。
+ *
+ * <pre>
+ * --ops=N          操作回数（デフォルト 1000000）
+ * --size=N         リストごとの目標の大きさ（デフォルト 1000）
+ * --seed=N         乱数の種（デフォルト 現在時刻）
+ * --check-every=N  何操作ごとにリスト全体を参照モデルと比較するか（デフォルト 1 で毎回。大きくすると速くなるが見逃しうる）
+ * </pre>
+ *
+ * @author nakagawa
+ *
+ */
+public class ListModelStress {
+
+	private static final String[] OP_NAMES = { "ADD", "EDIT", "DEL", "SORT", "CANCEL", "PERFORM", "TRANSFER", "XCANCEL" };
+	private static final int ADD = 0;
+	private static final int EDIT = 1;
+	private static final int DEL = 2;
+	private static final int SORT = 3;
+	private static final int CANCEL = 4;
+	private static final int PERFORM = 5;
+	private static final int TRANSFER = 6;
+	private static final int CROSS_CANCEL = 7;
+
+	/** ヒープの使用量を記録する間隔（操作数） */
+	private static final int HEAP_SAMPLE_INTERVAL = 256;
+
+	private static final MemoryMXBean HEAP = ManagementFactory.getMemoryMXBean();
+
+	/** テスト用の項目（equalsはオーバーライドせず、indexOfは同一性で探す） */
+	static final class Row {
+		final String id;
+		final String title;
+
+		Row(String id, String title) {
+			this.id = id;
+			this.title = title;
+		}
+
+		@Override
+		public String toString() {
+			return "Row [id=" + id + ", title=" + title + "]";
+		}
+	}
+
+	static final ItemAccessor<Row> ACCESSOR = new ItemAccessor<Row>() {
+		@Override
+		public String getId(Row item) {
+			return item.id;
+		}
+
+		@Override
+		public String getTitle(Row item) {
+			return item.title;
+		}
+
+		@Override
+		public Row copyWithTitle(Row item, String title) {
+			return new Row(item.id, title);
+		}
+
+		@Override
+		public Row newItem(String title) {
+			return new Row(null, title);
+		}
+	};
+
+	private final Random mRandom;
+	private final int mTargetSize;
+	private final int mCheckEvery;
+
+	private long mPeakHeapBytes;
+
+	/**
+	 * 1つのリスト（{@link EditableListFragment}1つ分）のモデルと参照モデル
+	 */
+	private static final class Side {
+		final String name;
+		final EditableListModel<Row> model = new EditableListModel<Row>();
+		final SectionRunIndex sectionIndex = new SectionRunIndex();
+
+		List<Row> reference = new ArrayList<Row>();
+		List<Row> referenceCache = new ArrayList<Row>();
+
+		/** 履歴を圧縮している場合に、直前の操作を取り消せるはずか */
+		boolean undoValid;
+
+		Side(String name) {
+			this.name = name;
+			model.setObserver(new EditableListModel.Observer<Row>() {
+				@Override
+				public void onItemInserted(int position, Row item) {
+					sectionIndex.insert(position, sectionKey(item));
+				}
+
+				@Override
+				public void onItemChanged(int position, Row oldItem, Row newItem) {
+					sectionIndex.set(position, sectionKey(newItem));
+				}
+
+				@Override
+				public void onItemRemoved(int position, Row item) {
+					sectionIndex.remove(position);
+				}
+
+				@Override
+				public void onItemMoved(int positionFrom, int positionTo) {
+					sectionIndex.move(positionFrom, positionTo);
+				}
+
+				@Override
+				public void onItemsReplaced() {
+					List<String> keys = new ArrayList<String>();
+					for (Row row : model.getItems()) {
+						keys.add(sectionKey(row));
+					}
+					sectionIndex.reset(keys);
+				}
+			});
+		}
+	}
+
+	private final Side[] mSides = { new Side("first"), new Side("second") };
+
+	/** 今の操作の対象 */
+	private Side mSide;
+
+	private final long[] mCounts = new long[OP_NAMES.length];
+	private final long[] mNanos = new long[OP_NAMES.length];
+	private long mStep;
+	private int mNextId;
+
+	ListModelStress(long seed, int targetSize, int checkEvery) {
+		mRandom = new Random(seed);
+		mTargetSize = targetSize;
+		mCheckEvery = checkEvery;
+
+		for (Side side : mSides) {
+			// ホストのリストをそのまま渡す（参照モデルとは別インスタンス）
+			List<Row> hostItems = new ArrayList<Row>();
+			for (int i = 0; i < targetSize / 2; i++) {
+				Row row = new Row(String.valueOf(mNextId++), randomTitle());
+				hostItems.add(row);
+				side.reference.add(row);
+			}
+			side.model.setItems(hostItems, ACCESSOR);
+			side.referenceCache = new ArrayList<Row>(side.reference);
+		}
+	}
+
+	public static void main(String[] args) {
+		long ops = 1000000;
+		int size = 1000;
+		long seed = System.currentTimeMillis();
+		int checkEvery = 1;
+		for (String arg : args) {
+			if (arg.startsWith("--ops=")) {
+				ops = Long.parseLong(arg.substring("--ops=".length()));
+			} else if (arg.startsWith("--size=")) {
+				size = Integer.parseInt(arg.substring("--size=".length()));
+			} else if (arg.startsWith("--seed=")) {
+				seed = Long.parseLong(arg.substring("--seed=".length()));
+			} else if (arg.startsWith("--check-every=")) {
+				checkEvery = Integer.parseInt(arg.substring("--check-every=".length()));
+			} else {
+				throw new IllegalArgumentException("unknown option: " + arg);
+			}
+		}
+		if (checkEvery <= 0) {
+			throw new IllegalArgumentException("--check-every must be positive: " + checkEvery);
+		}
+
+		System.out.println("ListModelStress: ops=" + ops + " size=" + size + " seed=" + seed + " check-every=" + checkEvery);
+
+		ListModelStress stress = new ListModelStress(seed, size, checkEvery);
+		final long start = System.nanoTime();
+		stress.run(ops);
+		final long elapsed = System.nanoTime() - start;
+
+		stress.report(elapsed);
+	}
+
+	void run(long ops) {
+		for (mStep = 0; mStep < ops; mStep++) {
+			step();
+			if (mStep % mCheckEvery == 0) {
+				for (Side side : mSides) {
+					checkAll(side);
+					toggleMemoryModes(side);
+				}
+			}
+			if (mStep % HEAP_SAMPLE_INTERVAL == 0) {
+				sampleHeap();
+			}
+		}
+		for (Side side : mSides) {
+			checkAll(side);
+		}
+		sampleHeap();
+	}
+
+	/**
+	 * ヒープ全体の使用量を記録する。<br>
+	 * メモリプールごとの最大値は別々の時点のものなので、足してもヒープの最大使用量にはならない
+	 */
+	private void sampleHeap() {
+		final long used = HEAP.getHeapMemoryUsage().getUsed();
+		if (used > mPeakHeapBytes) {
+			mPeakHeapBytes = used;
+		}
+	}
+
+	private void step() {
+		mSide = mSides[mRandom.nextInt(mSides.length)];
+		final int size = mSide.reference.size();
+		final int roll = mRandom.nextInt(100);
+
+		// 目標の大きさに近づくように追加と削除の割合を変える
+		final int addRate = size < mTargetSize ? 35 : 15;
+		if (size == 0 || roll < addRate) {
+			doAdd();
+		} else if (roll < 50) {
+			doDelete();
+		} else if (roll < 70) {
+			doEdit();
+		} else if (roll < 82) {
+			doSort();
+		} else if (roll < 86) {
+			doTransfer();
+		} else if (roll < 91) {
+			doCancel();
+		} else if (roll < 93) {
+			doCrossCancel();
+		} else {
+			doPerform();
+		}
+	}
+
+	private void doAdd() {
+		final String title = randomTitle();
+		final List<Row> before = new ArrayList<Row>(mSide.reference);
+
+		final long t = System.nanoTime();
+		Row added = mSide.model.add(title);
+		record(ADD, t);
+
+		mSide.reference.add(added);
+		mSide.referenceCache = before;
+		mSide.undoValid = true;
+		check(added.title.equals(title), "added title");
+		check(mSide.model.getItems().get(mSide.model.getItems().size() - 1) == added, "added at tail");
+		checkSize(mSide);
+	}
+
+	private void doEdit() {
+		final Row item = mSide.reference.get(mRandom.nextInt(mSide.reference.size()));
+		// 片方だけ取り消すと同じ項目が2つ入ることがある。モデルと同じく最初の位置を対象にする
+		final int position = mSide.reference.indexOf(item);
+		// ときどきハッシュ値が同じ別のタイトルに編集し、指紋の衝突でも取り消せるかを確かめる
+		final String title = mRandom.nextInt(8) == 0 ? collidingTitle(item.title) : randomTitle();
+		final List<Row> before = new ArrayList<Row>(mSide.reference);
+
+		final long t = System.nanoTime();
+		Row edited = mSide.model.edit(item, title);
+		record(EDIT, t);
+
+		check(edited != null, "edit found item");
+		check(edited.id == item.id && edited.title.equals(title), "edited copy");
+		mSide.reference.set(position, edited);
+		mSide.referenceCache = before;
+		mSide.undoValid = true;
+		check(mSide.model.getItems().get(position) == edited, "edited in place");
+		checkSize(mSide);
+	}
+
+	private void doDelete() {
+		final Row item = mSide.reference.get(mRandom.nextInt(mSide.reference.size()));
+		// 片方だけ取り消すと同じ項目が2つ入ることがある。モデルと同じく最初の位置を対象にする
+		final int position = mSide.reference.indexOf(item);
+		final List<Row> before = new ArrayList<Row>(mSide.reference);
+
+		final long t = System.nanoTime();
+		boolean deleted = mSide.model.delete(item);
+		record(DEL, t);
+
+		check(deleted, "delete found item");
+		mSide.reference.remove(position);
+		mSide.referenceCache = before;
+		mSide.undoValid = true;
+		checkSize(mSide);
+	}
+
+	private void doSort() {
+		final int size = mSide.reference.size();
+		final int moves = 1 + mRandom.nextInt(8);
+		final List<Row> before = new ArrayList<Row>(mSide.reference);
+
+		// ドラッグと同じく、隣の位置へ少しずつ動かす
+		int from = mRandom.nextInt(size);
+		final long t = System.nanoTime();
+		mSide.model.startMove(from);
+		for (int i = 0; i < moves; i++) {
+			int to = Math.max(0, Math.min(size - 1, from + mRandom.nextInt(7) - 3));
+			mSide.model.move(from, to);
+			mSide.reference.add(to, mSide.reference.remove(from));
+			from = to;
+		}
+		record(SORT, t);
+
+		mSide.referenceCache = before;
+		mSide.undoValid = true;
+		checkSize(mSide);
+	}
+
+	private void doCancel() {
+		cancel(mSide, CANCEL);
+	}
+
+	/**
+	 * 移動元と移動先の両方を取り消す（{@link EditableListFragment}で保存に失敗した場合と同じ）
+	 */
+	private void doCrossCancel() {
+		for (Side side : mSides) {
+			cancel(side, CROSS_CANCEL);
+		}
+	}
+
+	private void cancel(Side side, int op) {
+		// 履歴を圧縮している場合は、操作の後に内容が入れ替わっていると戻せない
+		final boolean compact = side.model.getCachedItems() == null;
+		final boolean restores = !compact || side.undoValid;
+		final boolean expectedChange = restores && !sameRows(side.reference, side.referenceCache);
+		final long versionBefore = side.model.getVersion();
+
+		final long t = System.nanoTime();
+		boolean changed = side.model.cancel();
+		record(op, t);
+
+		check(changed == expectedChange, side.name + " cancel changed=" + changed + " expected=" + expectedChange);
+		check(changed == (side.model.getVersion() != versionBefore), side.name + " version follows cancel");
+		if (restores) {
+			side.reference = new ArrayList<Row>(side.referenceCache);
+		}
+		side.undoValid = false;
+		checkSize(side);
+
+		// 履歴を圧縮している場合は取り消した項目だけが戻り、他の項目はperformで差し替えたインスタンスのまま残るので、内容を確かめてから合わせる
+		final List<Row> items = side.model.getItems();
+		for (int i = 0; i < items.size(); i++) {
+			check(sameRow(items.get(i), side.reference.get(i)), side.name + " cancelled item " + i);
+			side.reference.set(i, items.get(i));
+		}
+	}
+
+	/**
+	 * 並べ替えの途中で、もう一方のリストへドラッグして移す
+	 */
+	private void doTransfer() {
+		final Side source = mSide;
+		final Side target = mSides[0] == source ? mSides[1] : mSides[0];
+		final int size = source.reference.size();
+		final int moves = mRandom.nextInt(4);
+		final List<Row> sourceBefore = new ArrayList<Row>(source.reference);
+		final List<Row> targetBefore = new ArrayList<Row>(target.reference);
+
+		int from = mRandom.nextInt(size);
+		final int to = mRandom.nextInt(target.reference.size() + 1);
+		final long t = System.nanoTime();
+		source.model.startMove(from);
+		for (int i = 0; i < moves; i++) {
+			int next = Math.max(0, Math.min(size - 1, from + mRandom.nextInt(7) - 3));
+			source.model.move(from, next);
+			source.reference.add(next, source.reference.remove(from));
+			from = next;
+		}
+		Row moved = source.model.transferTo(from, target.model, to);
+		record(TRANSFER, t);
+
+		check(moved == source.reference.get(from), "transferred item");
+		source.reference.remove(from);
+		target.reference.add(to, moved);
+		source.referenceCache = sourceBefore;
+		source.undoValid = true;
+		target.referenceCache = targetBefore;
+		target.undoValid = true;
+		check(target.model.getItems().get(to) == moved, "transferred in place");
+		checkSize(source);
+		checkSize(target);
+	}
+
+	private void doPerform() {
+		final long versionBefore = mSide.model.getVersion();
+		final int kind = mRandom.nextInt(6);
+		final List<Row> incoming;
+		final boolean expectedChange;
+		final boolean changed;
+		final long t;
+
+		switch (kind) {
+		case 0:
+			// ホストが表示中のリストそのものをその場で書き換えて返してきた（指紋のキャッシュの有無に関わらず、常に作り直す）
+			incoming = mSide.model.getItems();
+			if (mRandom.nextBoolean()) {
+				final int edited = mRandom.nextInt(incoming.size());
+				incoming.set(edited, new Row(incoming.get(edited).id, randomTitle()));
+			}
+			expectedChange = true;
+			t = System.nanoTime();
+			changed = mSide.model.replace(incoming);
+			break;
+		case 1:
+			// 保存成功後、同じ内容のリストが返ってきた
+			incoming = new ArrayList<Row>(mSide.reference);
+			expectedChange = false;
+			t = System.nanoTime();
+			changed = mSide.model.replace(incoming);
+			break;
+		case 2:
+			// バージョン付きで返ってきた
+			incoming = new ArrayList<Row>(mSide.reference);
+			expectedChange = false;
+			t = System.nanoTime();
+			changed = mSide.model.replace(incoming, versionBefore);
+			break;
+		case 5:
+			// 保存成功後、IDとタイトルが同じ別のインスタンス（ホストの項目クラスの別のフィールドが変わったもの）が返ってきた
+			incoming = new ArrayList<Row>();
+			for (Row row : mSide.reference) {
+				incoming.add(new Row(row.id, row.title));
+			}
+			expectedChange = false;
+			t = System.nanoTime();
+			changed = mSide.model.replace(incoming);
+			break;
+		case 4:
+			// バックグラウンドでの変更がスナップショットとして届いた（キャッシュもこの内容になる）
+			incoming = new ArrayList<Row>(mSide.reference);
+			incoming.add(mRandom.nextInt(incoming.size() + 1), new Row(String.valueOf(mNextId++), randomTitle()));
+			expectedChange = true;
+			t = System.nanoTime();
+			changed = mSide.model.rebase(incoming);
+			break;
+		default:
+			// 保存時にIDが振られるなど、内容が変わって返ってきた
+			incoming = new ArrayList<Row>(mSide.reference);
+			final int position = mRandom.nextInt(incoming.size());
+			final Row row = incoming.get(position);
+			incoming.set(position, new Row(String.valueOf(mNextId++), row.title));
+			expectedChange = true;
+			t = System.nanoTime();
+			changed = mSide.model.replace(incoming);
+			break;
+		}
+		record(PERFORM, t);
+
+		check(changed == expectedChange, "perform kind=" + kind + " changed=" + changed);
+		check(changed == (mSide.model.getVersion() != versionBefore), "version follows perform");
+		for (int i = 0; i < incoming.size(); i++) {
+			check(mSide.model.getItems().get(i) == incoming.get(i), "perform kind=" + kind + " adopted item " + i);
+		}
+		mSide.reference = new ArrayList<Row>(incoming);
+		if (changed) {
+			mSide.undoValid = false;
+		}
+		if (kind == 4) {
+			mSide.referenceCache = new ArrayList<Row>(incoming);
+		}
+		checkSize(mSide);
+	}
+
+	private void record(int op, long start) {
+		mNanos[op] += System.nanoTime() - start;
+		mCounts[op]++;
+	}
+
+	private void checkSize(Side side) {
+		check(side.model.getItems().size() == side.reference.size(),
+				side.name + " size " + side.model.getItems().size() + " != " + side.reference.size());
+		check(side.sectionIndex.size() == side.reference.size(), side.name + " section index size");
+	}
+
+	/** リスト全体を参照モデルと比較する */
+	private void checkAll(Side side) {
+		checkSize(side);
+		final List<Row> items = side.model.getItems();
+		for (int i = 0; i < items.size(); i++) {
+			check(sameRow(items.get(i), side.reference.get(i)), side.name + " item " + i + ": " + items.get(i) + " != " + side.reference.get(i));
+			check(side.sectionIndex.keyAt(i).equals(sectionKey(items.get(i))), side.name + " section key " + i);
+		}
+		if (side.model.getCachedItems() != null) {
+			check(sameRows(side.model.getCachedItems(), side.referenceCache), side.name + " cached items");
+		}
+		check(side.model.getFingerprint() == ListFingerprint.compute(ACCESSOR, side.reference), side.name + " fingerprint");
+
+		long itemBytes = 0;
+		for (Row row : side.reference) {
+			itemBytes += EditableListModel.estimateBytes(ACCESSOR, row);
+		}
+		check(side.model.getItemBytes() == itemBytes, side.name + " item bytes " + side.model.getItemBytes() + " != " + itemBytes);
+	}
+
+	/** メモリ不足時の動作（履歴の圧縮・指紋のキャッシュの破棄）をときどき切り替える */
+	private void toggleMemoryModes(Side side) {
+		if (mRandom.nextInt(8) == 0) {
+			side.model.setCompactHistory(!side.model.isCompactHistory());
+		}
+		if (mRandom.nextInt(8) == 0) {
+			side.model.setFingerprintCached(!side.model.isFingerprintCached());
+		}
+	}
+
+	private void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError("step " + mStep + ": " + message);
+		}
+	}
+
+	private void report(long elapsed) {
+		long total = 0;
+		long modelNanos = 0;
+		for (int op = 0; op < OP_NAMES.length; op++) {
+			total += mCounts[op];
+			modelNanos += mNanos[op];
+			System.out.println(String.format("  %-8s %10d ops %12.0f ops/s", OP_NAMES[op], mCounts[op], perSecond(mCounts[op], mNanos[op])));
+		}
+		System.out.println(String.format("  total    %10d ops %12.0f ops/s (model only), %.0f ops/s (with checks), %.2f s", total,
+				perSecond(total, modelNanos), perSecond(total, elapsed), elapsed / 1e9));
+		System.out.println("  final size " + mSides[0].reference.size() + " + " + mSides[1].reference.size() + ", peak heap " + (mPeakHeapBytes / (1024 * 1024)) + " MB (sampled every "
+				+ HEAP_SAMPLE_INTERVAL + " ops)");
+	}
+
+	private static double perSecond(long count, long nanos) {
+		return nanos == 0 ? 0 : count * 1e9 / nanos;
+	}
+
+	private static boolean sameRows(List<Row> a, List<Row> b) {
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			if (!sameRow(a.get(i), b.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** 内容が同じか（同じタイトルへの編集では別インスタンスでも同じ内容になる） */
+	private static boolean sameRow(Row a, Row b) {
+		return equalsString(a.id, b.id) && equalsString(a.title, b.title);
+	}
+
+	private static boolean equalsString(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static String sectionKey(Row row) {
+		return row.title == null || row.title.length() == 0 ? "#" : String.valueOf(Character.toUpperCase(row.title.charAt(0)));
+	}
+
+	/**
+	 * hashCode()が同じで内容の違うタイトル（"Aa"と"BB"と同じ作り方）
+	 */
+	private String collidingTitle(String title) {
+		final char[] chars = title.toCharArray();
+		if (chars[1] >= 31) {
+			chars[0]++;
+			chars[1] -= 31;
+		} else {
+			// 衝突させたタイトルを元に戻す向き
+			chars[0]--;
+			chars[1] += 31;
+		}
+		final String colliding = new String(chars);
+		check(colliding.hashCode() == title.hashCode() && !colliding.equals(title), "colliding title");
+		return colliding;
+	}
+
+	private String randomTitle() {
+		// セクションがまとまりやすいよう先頭の文字は少なめにする
+		return (char) ('a' + mRandom.nextInt(4)) + Integer.toString(mRandom.nextInt(1000));
+	}
+}